@@ -0,0 +1,259 @@
+package com.a1848962.paxos.network;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact hand-written codec. The frame already carries the payload length, so the payload is laid out as:
+ * <pre>
+ *     [opcode byte][flags byte][senderID][varlong proposalNumber][varlong highestPromisedProposal][varint slot]
+ *     [value][acceptedValue][varint count, then per entry: [varint slot][varlong proposalNumber][proposerID][value]]
+ *     [varint lease][varint group][varint offset][varint total]
+ * </pre>
+ * Integers are zigzag varints, so the common small (and -1) values take a single byte. Ballots (see Ballot) are
+ * 64-bit, sent as zigzag varlongs. Member IDs of the form M&lt;n&gt; are sent as a varint n and decoded to a shared
+ * String instance, so no string is allocated for them on receipt. Strings that are not member IDs are sent as a
+ * varint length followed by UTF-8 bytes. value, acceptedValue, the list of accepted slot values, lease and group are
+ * only present if the matching flag is set, and offset and total (snapshot chunks during catch-up) share a flag.
+ * Within the list, a proposer ID is sent as varint n+1 for M&lt;n&gt;, or 0 followed by the string.
+ */
+public class BinaryCodec implements MessageCodec {
+    // opcodes, the index of each type in this array is the byte sent on the wire
+    private static final String[] TYPES = {
+            "PREPARE_REQ", "PROMISE", "ACCEPT_REQ", "ACCEPT", "REJECT", "LEARN", "ACK", "NACK", "ACCEPTED", "READ_REQ", "READ",
+            "CATCHUP_REQ", "CATCHUP"
+    };
+
+    private static final int FLAG_VALUE = 1;
+    private static final int FLAG_ACCEPTED_VALUE = 1 << 1;
+    private static final int FLAG_SENDER_LITERAL = 1 << 2; // senderID is not of the form M<n>
+    private static final int FLAG_NO_SENDER = 1 << 3;
+    private static final int FLAG_ACCEPTED_LIST = 1 << 4;
+    private static final int FLAG_LEASE = 1 << 5;
+    private static final int FLAG_GROUP = 1 << 6;
+    private static final int FLAG_CHUNK = 1 << 7; // offset or total is set
+
+    // interned member IDs, keyed by the numeric part of the ID
+    private static final ConcurrentHashMap<Integer, String> memberIDs = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] encode(Message message) {
+        Writer out = new Writer();
+        out.writeByte(opcode(message.type));
+
+        int memberNumber = message.senderID == null ? -1 : memberNumber(message.senderID);
+        int flags = 0;
+        if (message.value != null) flags |= FLAG_VALUE;
+        if (message.acceptedValue != null) flags |= FLAG_ACCEPTED_VALUE;
+        if (message.accepted != null) flags |= FLAG_ACCEPTED_LIST;
+        if (message.lease != 0) flags |= FLAG_LEASE;
+        if (message.group != 0) flags |= FLAG_GROUP;
+        if (message.offset != 0 || message.total != 0) flags |= FLAG_CHUNK;
+        if (message.senderID == null) flags |= FLAG_NO_SENDER;
+        else if (memberNumber < 0) flags |= FLAG_SENDER_LITERAL;
+        out.writeByte(flags);
+
+        if (memberNumber >= 0) out.writeVarInt(memberNumber);
+        else if (message.senderID != null) out.writeString(message.senderID);
+        out.writeVarLong(zigzag(message.proposalNumber));
+        out.writeVarLong(zigzag(message.highestPromisedProposal));
+        out.writeVarInt(zigzag(message.slot));
+        if (message.value != null) out.writeString(message.value);
+        if (message.acceptedValue != null) out.writeString(message.acceptedValue);
+        if (message.accepted != null) {
+            out.writeVarInt(message.accepted.size());
+            for (Message.SlotValue entry : message.accepted) {
+                out.writeVarInt(zigzag(entry.slot));
+                out.writeVarLong(zigzag(entry.proposalNumber));
+                int proposerNumber = memberNumber(entry.proposerID);
+                if (proposerNumber >= 0) {
+                    out.writeVarInt(proposerNumber + 1);
+                } else {
+                    out.writeVarInt(0);
+                    out.writeString(entry.proposerID);
+                }
+                out.writeString(entry.value);
+            }
+        }
+        if (message.lease != 0) out.writeVarInt(zigzag(message.lease));
+        if (message.group != 0) out.writeVarInt(zigzag(message.group));
+        if ((flags & FLAG_CHUNK) != 0) {
+            out.writeVarInt(zigzag(message.offset));
+            out.writeVarInt(zigzag(message.total));
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] bytes) {
+        Reader in = new Reader(bytes);
+        Message message = new Message();
+        int opcode = in.readByte();
+        if (opcode >= TYPES.length) throw new IllegalArgumentException("Unknown message opcode: " + opcode);
+        message.type = TYPES[opcode];
+
+        int flags = in.readByte();
+        if ((flags & FLAG_NO_SENDER) != 0) message.senderID = null;
+        else if ((flags & FLAG_SENDER_LITERAL) != 0) message.senderID = in.readString();
+        else message.senderID = memberIDs.computeIfAbsent(in.readVarInt(), n -> "M" + n);
+        message.proposalNumber = unzigzag(in.readVarLong());
+        message.highestPromisedProposal = unzigzag(in.readVarLong());
+        message.slot = unzigzag(in.readVarInt());
+        if ((flags & FLAG_VALUE) != 0) message.value = in.readString();
+        if ((flags & FLAG_ACCEPTED_VALUE) != 0) message.acceptedValue = in.readString();
+        if ((flags & FLAG_ACCEPTED_LIST) != 0) {
+            int count = in.readVarInt();
+            if (count < 0 || count > bytes.length) throw new IllegalArgumentException("Invalid accepted value count: " + count);
+            message.accepted = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int slot = unzigzag(in.readVarInt());
+                long proposalNumber = unzigzag(in.readVarLong());
+                int proposerNumber = in.readVarInt();
+                String proposerID = proposerNumber > 0
+                        ? memberIDs.computeIfAbsent(proposerNumber - 1, n -> "M" + n)
+                        : in.readString();
+                message.accepted.add(new Message.SlotValue(slot, proposalNumber, proposerID, in.readString()));
+            }
+        }
+        if ((flags & FLAG_LEASE) != 0) message.lease = unzigzag(in.readVarInt());
+        if ((flags & FLAG_GROUP) != 0) message.group = unzigzag(in.readVarInt());
+        if ((flags & FLAG_CHUNK) != 0) {
+            message.offset = unzigzag(in.readVarInt());
+            message.total = unzigzag(in.readVarInt());
+        }
+        return message;
+    }
+
+    private static int opcode(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) return i;
+        }
+        throw new IllegalArgumentException("Message type cannot be encoded: " + type);
+    }
+
+    /**
+     * @return  n if id is of the form M&lt;n&gt; (without leading zeros, so it decodes to the same string), else -1
+     */
+    private static int memberNumber(String id) {
+        int length = id.length();
+        if (length < 2 || length > 10 || id.charAt(0) != 'M') return -1;
+        if (id.charAt(1) == '0' && length > 2) return -1;
+        int n = 0;
+        for (int i = 1; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            n = n * 10 + (c - '0');
+            if (n < 0) return -1; // overflow
+        }
+        return n;
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Minimal growable byte buffer with varint support.
+     */
+    private static final class Writer {
+        private byte[] buffer = new byte[64];
+        private int position = 0;
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) b;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position = 0;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        int readByte() {
+            if (position >= buffer.length) throw new IllegalArgumentException("Truncated message");
+            return buffer[position++] & 0xFF;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varlong");
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length < 0 || position + length > buffer.length) throw new IllegalArgumentException("Truncated message");
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
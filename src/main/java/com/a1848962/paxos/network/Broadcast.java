@@ -0,0 +1,92 @@
+package com.a1848962.paxos.network;
+
+import com.a1848962.paxos.utils.MemberConfig;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Broadcast primitive used by the proposer phases. The message is marshalled once and the same payload is sent to
+ * every remote recipient in parallel. The sending member's own copy is delivered in-process by its Network.
+ */
+public class Broadcast {
+
+    private Broadcast() {}
+
+    /**
+     * Sends a message to all recipients and returns a future that completes as soon as `quorum` replies satisfy
+     * `matcher`. Replies arriving after the outcome is known are ignored and their requests are cancelled.
+     *
+     * @param message       the message to broadcast
+     * @param recipients    network information of each recipient
+     * @param quorum        number of matching replies required
+     * @param matcher       decides whether a reply counts towards the quorum. Called once per reply, never with null
+     * @param local         network of the sending member, used to short-circuit delivery to itself
+     * @return              QuorumFuture completing with the matching replies
+     */
+    static QuorumFuture toQuorum(Message message, Collection<MemberConfig.MemberInfo> recipients, int quorum,
+                                 Predicate<Message> matcher, Network local) {
+        QuorumFuture result = new QuorumFuture(quorum, recipients.size(), matcher);
+        sendAll(message, null, recipients, result, local);
+        return result;
+    }
+
+    /**
+     * Thrifty variant of toQuorum: the message is first sent only to the first `quorum` recipients (callers order them
+     * by preference, e.g. fastest first). The remaining recipients are sent the message only if the quorum has not
+     * been reached after `fallbackDelay` ms, or as soon as one of the first replies fails to match, so in the common
+     * case a round costs a quorum of messages instead of one per recipient.
+     *
+     * @param message       the message to broadcast
+     * @param recipients    network information of each recipient, in order of preference
+     * @param quorum        number of matching replies required
+     * @param matcher       decides whether a reply counts towards the quorum. Called once per reply, never with null
+     * @param local         network of the sending member, used to short-circuit delivery to itself
+     * @param fallbackDelay time in ms to wait for the first recipients before sending to the rest
+     * @param timer         schedules the fallback
+     * @return              QuorumFuture completing with the matching replies
+     */
+    static QuorumFuture toQuorumThrifty(Message message, List<MemberConfig.MemberInfo> recipients, int quorum,
+                                        Predicate<Message> matcher, Network local, long fallbackDelay,
+                                        ScheduledExecutorService timer) {
+        QuorumFuture result = new QuorumFuture(quorum, recipients.size(), matcher);
+        if (result.isDone() || quorum >= recipients.size()) {
+            sendAll(message, null, recipients, result, local);
+            return result;
+        }
+
+        byte[] payload = message.marshall(); // shared by both waves
+        List<MemberConfig.MemberInfo> rest = recipients.subList(quorum, recipients.size());
+        AtomicBoolean fallenBack = new AtomicBoolean(false);
+        Runnable fallback = () -> {
+            if (!result.isDone() && fallenBack.compareAndSet(false, true)) sendAll(message, payload, rest, result, local);
+        };
+        result.onShortfall(fallback);
+        try {
+            ScheduledFuture<?> deadline = timer.schedule(fallback, fallbackDelay, TimeUnit.MILLISECONDS);
+            result.whenComplete((replies, ex) -> deadline.cancel(false));
+        } catch (RejectedExecutionException ex) {
+            fallback.run(); // timer shut down, no point holding back
+        }
+        sendAll(message, payload, recipients.subList(0, quorum), result, local);
+        return result;
+    }
+
+    private static void sendAll(Message message, byte[] payload, Collection<MemberConfig.MemberInfo> recipients,
+                                QuorumFuture result, Network local) {
+        for (MemberConfig.MemberInfo recipient : recipients) {
+            if (local.isLocal(recipient)) {
+                result.track(local.deliverLocally(message));
+            } else {
+                if (payload == null) payload = message.marshall(); // marshalled on first remote recipient
+                result.track(Message.send(payload, recipient));
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.a1848962.paxos.network;
+
+import com.a1848962.paxos.utils.MemberConfig;
+import com.a1848962.paxos.utils.SimpleLogger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of long-lived TCP connections to other members, keyed by MemberInfo. There is one multiplexed connection per
+ * peer: every request is written as a Frame tagged with a request ID, and a reader thread matches responses back to
+ * the pending CompletableFuture, so many requests can be in flight to the same peer and replies may arrive in any
+ * order. Connections are re-established on demand after a failure and closed once they have been idle for
+ * IDLE_TIMEOUT ms.
+ */
+public class ConnectionPool {
+    private static final int CONNECT_TIMEOUT = 2000; // time in ms to wait for a new connection to be established
+    private static final int RESPONSE_TIMEOUT = 4000; // time in ms to wait for the response to a single request
+    private static final long IDLE_TIMEOUT = 30000; // time in ms a connection may sit idle before it is closed
+
+    private final Map<MemberConfig.MemberInfo, PeerConnection> peers = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer;
+    private static final SimpleLogger log = new SimpleLogger("POOL");
+
+    /**
+     * Handle for the connection to a single peer. The handle lives for as long as the pool; the underlying socket is
+     * opened lazily and replaced whenever it fails.
+     */
+    private class PeerConnection {
+        private final MemberConfig.MemberInfo peer;
+        private final AtomicLong nextRequestId = new AtomicLong();
+        private final Map<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+        private Socket socket; // guarded by this
+        private OutputStream out; // guarded by this
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PeerConnection(MemberConfig.MemberInfo peer) {
+            this.peer = peer;
+        }
+
+        /**
+         * Writes a request frame and registers a future for its response. The future completes exceptionally if no
+         * response arrives within RESPONSE_TIMEOUT, or if the connection fails first.
+         */
+        CompletableFuture<byte[]> request(byte[] payload) {
+            long requestId = nextRequestId.incrementAndGet();
+            CompletableFuture<byte[]> response = new CompletableFuture<>();
+            pending.put(requestId, response);
+            lastUsed = System.currentTimeMillis();
+
+            ScheduledFuture<?> timeout = timer.schedule(() -> {
+                if (pending.remove(requestId) != null) {
+                    response.completeExceptionally(new TimeoutException("No response from " + peer.id + " after " + RESPONSE_TIMEOUT + "ms"));
+                }
+            }, RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+            response.whenComplete((r, ex) -> {
+                timeout.cancel(false);
+                if (response.isCancelled()) pending.remove(requestId); // abandoned by caller, ignore any late reply
+            });
+
+            try {
+                write(Frame.encode(requestId, payload));
+            } catch (IOException ex) {
+                pending.remove(requestId);
+                response.completeExceptionally(ex);
+            }
+            return response;
+        }
+
+        /**
+         * Health check performed before each write. Opens a new socket (and reader thread) if there is no usable
+         * connection to the peer.
+         */
+        private synchronized void write(byte[] frame) throws IOException {
+            if (socket == null || socket.isClosed()) connect();
+            try {
+                out.write(frame);
+                out.flush();
+            } catch (IOException ex) {
+                closeSocket(socket, ex);
+                throw ex;
+            }
+        }
+
+        private void connect() throws IOException {
+            Socket newSocket = new Socket();
+            newSocket.connect(new InetSocketAddress(peer.address, peer.port), CONNECT_TIMEOUT);
+            newSocket.setTcpNoDelay(true); // messages are small and latency sensitive
+            socket = newSocket;
+            out = newSocket.getOutputStream();
+
+            Thread reader = new Thread(() -> readResponses(newSocket), "pool-reader-" + peer.id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Reader loop for one socket. Completes the pending future matching each response frame until the socket
+         * fails, then fails any requests still waiting on it.
+         */
+        private void readResponses(Socket readSocket) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(readSocket.getInputStream()));
+                while (true) {
+                    Frame frame = Frame.read(in);
+                    CompletableFuture<byte[]> response = pending.remove(frame.requestId);
+                    if (response != null) response.complete(frame.payload); // else the request already timed out
+                }
+            } catch (IOException ex) {
+                closeSocket(readSocket, ex);
+            }
+        }
+
+        /**
+         * Closes a socket if it is still the current one, failing all requests that were waiting on it.
+         */
+        private synchronized void closeSocket(Socket failed, Exception cause) {
+            if (failed != socket) return; // already replaced
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // socket is being discarded anyway
+            }
+            socket = null;
+            out = null;
+            for (Long requestId : pending.keySet()) {
+                CompletableFuture<byte[]> response = pending.remove(requestId);
+                if (response != null) response.completeExceptionally(cause);
+            }
+        }
+
+        /**
+         * Closes the socket if no requests are outstanding and it has not been used for IDLE_TIMEOUT ms.
+         */
+        synchronized void closeIfIdle() {
+            if (socket != null && pending.isEmpty() && System.currentTimeMillis() - lastUsed > IDLE_TIMEOUT) {
+                log.info("Closing idle connection to " + peer.id);
+                closeSocket(socket, new IOException("Idle connection closed"));
+            }
+        }
+    }
+
+    public ConnectionPool() {
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-timer");
+            thread.setDaemon(true); // do not keep the JVM alive just to time out requests
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true); // most timeouts are cancelled, do not let them pile up in the queue
+        timer.scheduleAtFixedRate(this::evictIdle, IDLE_TIMEOUT, IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a request to a peer over its shared connection.
+     *
+     * @param peer      the member to send the request to
+     * @param payload   the marshalled request
+     * @return          future completing with the marshalled response, or exceptionally if none is received
+     */
+    public CompletableFuture<byte[]> request(MemberConfig.MemberInfo peer, byte[] payload) {
+        return peers.computeIfAbsent(peer, PeerConnection::new).request(payload);
+    }
+
+    private void evictIdle() {
+        for (PeerConnection connection : peers.values()) {
+            connection.closeIfIdle();
+        }
+    }
+
+    /**
+     * Closes all pooled connections.
+     */
+    public void closeAll() {
+        for (PeerConnection connection : peers.values()) {
+            synchronized (connection) {
+                if (connection.socket != null) {
+                    connection.closeSocket(connection.socket, new IOException("Connection pool closed"));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.a1848962.paxos.network;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire framing shared by the client (ConnectionPool) and server (Network) sides of a connection. Every frame is
+ * length-prefixed and carries the request ID of the exchange it belongs to, so many requests can share one
+ * connection and responses can be matched back to their request in any order:
+ * <pre>
+ *     [int payloadLength][long requestId][payload bytes]
+ * </pre>
+ */
+final class Frame {
+    static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    static final int MAX_PAYLOAD = 16 * 1024 * 1024; // guard against corrupt length prefixes
+
+    final long requestId;
+    final byte[] payload;
+
+    Frame(long requestId, byte[] payload) {
+        this.requestId = requestId;
+        this.payload = payload;
+    }
+
+    /**
+     * Encodes a frame into a single array so it can be written to a socket with one call.
+     *
+     * @param requestId     correlation ID of the exchange
+     * @param payload       marshalled message
+     * @return              header and payload
+     */
+    static byte[] encode(long requestId, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putLong(requestId);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    /**
+     * Blocking read of the next frame from a stream.
+     *
+     * @param in    stream to read from
+     * @return      the frame read
+     * @throws IOException  if the stream is closed or the frame is malformed
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) throw new IOException("Invalid frame length " + length);
+        long requestId = in.readLong();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(requestId, payload);
+    }
+
+    /**
+     * Non-blocking decode of the next frame from a buffer in read mode. If the buffer does not yet hold a complete
+     * frame, its position is left unchanged and null is returned.
+     *
+     * @param buffer    buffer holding received bytes
+     * @return          the next complete frame, or null
+     * @throws IOException  if the frame is malformed
+     */
+    static Frame decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE) return null;
+        int length = buffer.getInt(buffer.position());
+        if (length < 0 || length > MAX_PAYLOAD) throw new IOException("Invalid frame length " + length);
+        if (buffer.remaining() < HEADER_SIZE + length) return null;
+
+        buffer.getInt();
+        long requestId = buffer.getLong();
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        return new Frame(requestId, payload);
+    }
+}
@@ -0,0 +1,23 @@
+package com.a1848962.paxos.network;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Human-readable codec using gson. Slower than BinaryCodec, but useful for debugging as frames can be read directly
+ * off the wire.
+ */
+public class JsonCodec implements MessageCodec {
+    private static final Gson gson = new Gson();
+
+    @Override
+    public byte[] encode(Message message) {
+        return gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Message decode(byte[] bytes) {
+        return gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Message.class);
+    }
+}
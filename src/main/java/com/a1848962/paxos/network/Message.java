@@ -1,45 +1,78 @@
 package com.a1848962.paxos.network;
 
+import com.a1848962.paxos.utils.MemberConfig;
 import com.a1848962.paxos.utils.SimpleLogger;
+import com.a1848962.paxos.utils.ThreadPools;
 
-import com.google.gson.Gson;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Message class to represent a message between members. Allows message sending using message.send(address, port).
+ * Message class to represent a message between members. Allows message sending using message.send(memberInfo).
  * Some parts of this class were written with the assistance of AI, as specified.
  */
 public class Message {
     // do not serialise:
-    private static final Gson gson = new Gson();
+    private static final Properties properties = MemberConfig.getProperties();
+    private static final MessageCodec codec = MessageCodec.forName(properties.getProperty("codec", "binary"));
     public static int MAX_DELAY = 50; // maximum send delay in milliseconds
     public static double LOSS_CHANCE = 0.15; // 15% chance of message loss
-    private static final ExecutorService executor = Executors.newCachedThreadPool();
+    // runs simulated delays and response callbacks for all sends, sends fail fast once it is saturated
+    private static final ExecutorService executor = ThreadPools.bounded("message-send",
+            Integer.parseInt(properties.getProperty("send_threads", "64")),
+            Integer.parseInt(properties.getProperty("send_queue", "1024")));
+    private static final ConnectionPool pool = new ConnectionPool(); // persistent connections shared by all sends
     private static final SimpleLogger log = new SimpleLogger("MESSAGE");
     private static final Random random = new Random();
 
+    public static final String NOOP = "NOOP"; // value used to fill a log slot that has no proposed value
+
     // serialise:
-    public String type; // one of: PREPARE_REQ,PROMISE,ACCEPT_REQ,ACCEPT,REJECT,LEARN
-    public int proposalNumber;
+    public String type; // one of: PREPARE_REQ,PROMISE,ACCEPT_REQ,ACCEPT,REJECT,LEARN,ACCEPTED,READ_REQ,READ,CATCHUP_REQ,CATCHUP
+    public long proposalNumber; // ballot, see Ballot
     public String senderID;
     public String value = null; // councillor to be elected
-    public int highestPromisedProposal = -1;
+    public long highestPromisedProposal = -1; // REJECT: ballot the acceptor has promised, -1 if unknown
     public String acceptedValue = null;
+    public int slot = 0; // log slot the message refers to. For PREPARE_REQ, the first slot phase one is run for
+    public List<SlotValue> accepted = null; // PROMISE: values accepted in slots >= prepared slot, ACCEPTED: the value just accepted
+    public int lease = 0; // ACCEPT_REQ only: lease in ms requested by the proposer, 0 for none
+    public int group = 0; // Paxos group the message belongs to, requests only (responses are matched by request ID)
+    public int offset = 0; // CATCHUP_REQ/CATCHUP: index in the snapshot's values of the first value of a snapshot chunk
+    public int total = 0; // CATCHUP: values in the snapshot being streamed, or learned slots available from the requested slot
+
+    /**
+     * A value an acceptor has accepted for a log slot, and the proposal it was accepted in.
+     */
+    public static class SlotValue {
+        public int slot;
+        public long proposalNumber;
+        public String proposerID;
+        public String value;
+
+        public SlotValue() {} // for deserialisation
+
+        public SlotValue(int slot, long proposalNumber, String proposerID, String value) {
+            this.slot = slot;
+            this.proposalNumber = proposalNumber;
+            this.proposerID = proposerID;
+            this.value = value;
+        }
+    }
 
     /**
      * Simulate network delay and packet loss according to MAX_DELAY / LOSS_CHANCE values
      *
      * @return  true if the message was lost, else false
      */
-    private boolean simulateDelayLoss() {
+    private static boolean simulateDelayLoss() {
         // simulate networkInfo delay up to maxDelay length
         int delay;
         if (MAX_DELAY > 0) delay = random.nextInt(MAX_DELAY);
@@ -56,83 +89,130 @@ public class Message {
     }
 
     /**
-     * Converts object to JSON object using gson
-     * @return     a serialisable JSON string
+     * Converts object to bytes using the codec selected in member.properties
+     * @return     the encoded message
      */
-    public String marshall() {
-        return gson.toJson(this) + "\n";
+    public byte[] marshall() {
+        return codec.encode(this);
     }
 
     /**
-     * Converts JSON object back to Message object
-     * @return     a message object from JSON string
+     * Converts bytes produced by marshall() back to a Message object
+     * @return     a message object decoded from bytes
      */
-    public static Message unmarshall(String json) {
-        return gson.fromJson(json, Message.class);
+    public static Message unmarshall(byte[] bytes) {
+        return codec.decode(bytes);
     }
 
     /**
-     * Send this message object to the specified address/port. Returns a CompletableFuture that completes with the
-     * response or exceptionally on failure. This function written with the assistance of AI.
+     * Send this message object to the specified member. The request shares a single multiplexed connection with all
+     * other requests to that member, and the response is matched back to this request by its request ID. Returns a
+     * CompletableFuture that completes with the response, or with null on failure. This function written with the
+     * assistance of AI.
      *
-     * @param address   address of recipient
-     * @param port      port of recipient
-     * @return          CompletableFuture<String> containing response
+     * @param recipient     network information of recipient
+     * @return              CompletableFuture<Message> containing response
      */
-    public CompletableFuture<Message> send(String address, int port) {
-        return CompletableFuture.supplyAsync(() -> {
-            if (simulateDelayLoss()) return null;
-
-            try (Socket socket = new Socket(address, port)) {
-                // send message
-                OutputStream socketOut = socket.getOutputStream();
-                String marshalledMessage = marshall(); // newline as delimiter
-                socketOut.write(marshalledMessage.getBytes());
-                socketOut.flush();
-
-                // read response, timeout after 4 seconds
-                socket.setSoTimeout(4000); // 4 seconds timeout for response
-                BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                String response = socketIn.readLine();
-
-                if (response == null || response.isEmpty()) {
-                    log.warn("No response received from " + address + ":" + port);
-                    return null;
-                } else {
-                    return Message.unmarshall(response);
+    public CompletableFuture<Message> send(MemberConfig.MemberInfo recipient) {
+        return send(marshall(), recipient);
+    }
+
+    /**
+     * Send an already marshalled message to the specified member, so a broadcast only marshalls once. Cancelling the
+     * returned future abandons the request, and any late response is discarded. If the send pool is saturated, the
+     * future completes with null straight away.
+     *
+     * @param payload       marshalled message
+     * @param recipient     network information of recipient
+     * @return              CompletableFuture<Message> containing response, or null on failure
+     */
+    static CompletableFuture<Message> send(byte[] payload, MemberConfig.MemberInfo recipient) {
+        CompletableFuture<Message> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (simulateDelayLoss()) {
+                    result.complete(null);
+                    return;
                 }
-            } catch (Exception ex) {
-                log.warn("Error communicating with " + address + ":" + port + " - " + ex.getMessage());
-                return null;
-            }
-        }, executor);
+                if (result.isDone()) return; // cancelled during simulated delay
+
+                CompletableFuture<byte[]> request = pool.request(recipient, payload);
+                result.whenComplete((response, ex) -> {
+                    if (result.isCancelled()) request.cancel(false);
+                });
+                // complete on the executor, callers may block and must not hold up the connection's reader thread
+                request.whenComplete((response, ex) -> completeAsync(() -> {
+                    if (ex != null) {
+                        Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                        if (!(cause instanceof CancellationException)) {
+                            log.warn("Error communicating with " + recipient.address + ":" + recipient.port + " - " + cause.getMessage());
+                        }
+                        result.complete(null);
+                    } else if (response.length == 0) {
+                        log.warn("No response received from " + recipient.address + ":" + recipient.port);
+                        result.complete(null);
+                    } else {
+                        result.complete(Message.unmarshall(response));
+                    }
+                }));
+            });
+        } catch (RejectedExecutionException ex) {
+            log.warn("Send pool saturated, dropping message to " + recipient.address + ":" + recipient.port);
+            result.complete(null);
+        }
+        return result;
+    }
+
+    /**
+     * Runs a completion on the send pool. If the pool is saturated it runs on the calling thread instead, as dropping
+     * it would leave the caller waiting on a future that never completes.
+     */
+    private static void completeAsync(Runnable completion) {
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException ex) {
+            completion.run();
+        }
     }
 
     /**
      * Creates a PREPARE_REQ message
      *
-     * @param proposalCounter   proposal number
+     * @param proposalCounter   ballot
+     * @param memberID          member ID of sender
+     * @return                  PREPARE_REQ type message
+     */
+    public static Message prepareRequest(long proposalCounter, String memberID) {
+        return prepareRequest(proposalCounter, memberID, 0);
+    }
+
+    /**
+     * Creates a PREPARE_REQ message covering every log slot from `fromSlot` onwards
+     *
+     * @param proposalCounter   ballot
      * @param memberID          member ID of sender
+     * @param fromSlot          first log slot the proposer has not yet seen chosen
      * @return                  PREPARE_REQ type message
      */
-    public static Message prepareRequest(int proposalCounter, String memberID) {
+    public static Message prepareRequest(long proposalCounter, String memberID, int fromSlot) {
         Message message = new Message();
         message.type = "PREPARE_REQ";
         message.proposalNumber = proposalCounter;
         message.senderID = memberID;
+        message.slot = fromSlot;
         return message;
     }
 
     /**
      * Creates a PROMISE message containing information regarding a previously accepted proposal
      *
-     * @param proposalCounter               proposal number
+     * @param proposalCounter               ballot
      * @param memberID                      member ID of sender
-     * @param highestPromisedProposal       highest proposal number already promised or accepted
+     * @param highestPromisedProposal       highest ballot already promised or accepted
      * @param acceptedValue                 associated value of highest accepted proposal
      * @return                              PROMISE type message
      */
-    public static Message promise(int proposalCounter, String memberID, int highestPromisedProposal, String acceptedValue) {
+    public static Message promise(long proposalCounter, String memberID, long highestPromisedProposal, String acceptedValue) {
         Message message = promise(proposalCounter, memberID);
         message.highestPromisedProposal = highestPromisedProposal;
         message.acceptedValue = acceptedValue;
@@ -142,11 +222,11 @@ public class Message {
     /**
      * Creates a PROMISE message
      *
-     * @param proposalCounter               proposal number
+     * @param proposalCounter               ballot
      * @param memberID                      member ID of sender
      * @return                              PROMISE type message
      */
-    public static Message promise(int proposalCounter, String memberID) {
+    public static Message promise(long proposalCounter, String memberID) {
         Message message = new Message();
         message.type = "PROMISE";
         message.proposalNumber = proposalCounter;
@@ -154,19 +234,50 @@ public class Message {
         return message;
     }
 
+    /**
+     * Creates a PROMISE message for a prepare request starting at `fromSlot`, listing the values the acceptor has
+     * accepted in that slot and every later slot
+     *
+     * @param proposalCounter               ballot
+     * @param memberID                      member ID of sender
+     * @param fromSlot                      first slot covered by the prepare request
+     * @param accepted                      accepted values in slots >= fromSlot
+     * @return                              PROMISE type message
+     */
+    public static Message promise(long proposalCounter, String memberID, int fromSlot, List<SlotValue> accepted) {
+        Message message = promise(proposalCounter, memberID);
+        message.slot = fromSlot;
+        message.accepted = accepted;
+        return message;
+    }
+
     /**
      * Creates an ACCEPT_REQ message
      *
-     * @param proposalCounter               proposal number
+     * @param proposalCounter               ballot
      * @param memberID                      member ID of sender
      * @param value                         value to be accepted
      * @return                              ACCEPT_REQ type message
      */
-    public static Message acceptRequest(int proposalCounter, String memberID, String value) {
+    public static Message acceptRequest(long proposalCounter, String memberID, String value) {
+        return acceptRequest(proposalCounter, memberID, 0, value);
+    }
+
+    /**
+     * Creates an ACCEPT_REQ message for a log slot
+     *
+     * @param proposalCounter               ballot
+     * @param memberID                      member ID of sender
+     * @param slot                          log slot the value is proposed for
+     * @param value                         value to be accepted
+     * @return                              ACCEPT_REQ type message
+     */
+    public static Message acceptRequest(long proposalCounter, String memberID, int slot, String value) {
         Message message = new Message();
         message.type = "ACCEPT_REQ";
         message.proposalNumber = proposalCounter;
         message.senderID = memberID;
+        message.slot = slot;
         message.value = value;
         return message;
     }
@@ -174,16 +285,30 @@ public class Message {
     /**
      * Creates an ACCEPT message
      *
-     * @param proposalCounter               proposal number
+     * @param proposalCounter               ballot
+     * @param memberID                      member ID of sender
+     * @param value                         value being accepted
+     * @return                              ACCEPT type message
+     */
+    public static Message accept(long proposalCounter, String memberID, String value) {
+        return accept(proposalCounter, memberID, 0, value);
+    }
+
+    /**
+     * Creates an ACCEPT message for a log slot
+     *
+     * @param proposalCounter               ballot
      * @param memberID                      member ID of sender
+     * @param slot                          log slot the value was accepted for
      * @param value                         value being accepted
      * @return                              ACCEPT type message
      */
-    public static Message accept(int proposalCounter, String memberID, String value) {
+    public static Message accept(long proposalCounter, String memberID, int slot, String value) {
         Message message = new Message();
         message.type = "ACCEPT";
         message.proposalNumber = proposalCounter;
         message.senderID = memberID;
+        message.slot = slot;
         message.value = value;
         return message;
     }
@@ -191,13 +316,13 @@ public class Message {
     /**
      * Creates a REJECT message - used for rejecting a request when acceptor has already accepted a higher proposalID
      *
-     * @param proposalCounter               proposal number
+     * @param proposalCounter               ballot
      * @param memberID                      member ID of sender
-     * @param highestPromisedProposal       highest proposal number already promised or accepted
+     * @param highestPromisedProposal       highest ballot already promised or accepted
      * @param acceptedValue                 associated value of highest accepted proposal
      * @return                              REJECT type message
      */
-    public static Message reject(int proposalCounter, String memberID, int highestPromisedProposal, String acceptedValue) {
+    public static Message reject(long proposalCounter, String memberID, long highestPromisedProposal, String acceptedValue) {
         Message message = reject(proposalCounter, memberID, highestPromisedProposal);
         message.acceptedValue = acceptedValue;
         return message;
@@ -207,12 +332,12 @@ public class Message {
      * Creates a REJECT message - used for rejecting a request when acceptor has already promised a higher
      * proposalID but not accepted any values
      *
-     * @param proposalCounter               proposal number
+     * @param proposalCounter               ballot
      * @param memberID                      member ID of sender
-     * @param highestPromisedProposal       highest proposal number already promised or accepted
+     * @param highestPromisedProposal       highest ballot already promised or accepted
      * @return                              REJECT type message
      */
-    public static Message reject(int proposalCounter, String memberID, int highestPromisedProposal) {
+    public static Message reject(long proposalCounter, String memberID, long highestPromisedProposal) {
         Message message = new Message();
         message.type = "REJECT";
         message.proposalNumber = proposalCounter;
@@ -224,20 +349,53 @@ public class Message {
     /**
      * Creates a LEARN message
      *
-     * @param proposalCounter               proposal number
+     * @param proposalCounter               ballot
+     * @param memberID                      member ID of sender
+     * @param value                         value to be learned
+     * @return                              LEARN type message
+     */
+    public static Message learn(long proposalCounter, String memberID, String value) {
+        return learn(proposalCounter, memberID, 0, value);
+    }
+
+    /**
+     * Creates a LEARN message for a log slot
+     *
+     * @param proposalCounter               ballot
      * @param memberID                      member ID of sender
+     * @param slot                          log slot the value was chosen for
      * @param value                         value to be learned
      * @return                              LEARN type message
      */
-    public static Message learn(int proposalCounter, String memberID, String value) {
+    public static Message learn(long proposalCounter, String memberID, int slot, String value) {
         Message message = new Message();
         message.type = "LEARN";
         message.proposalNumber = proposalCounter;
         message.senderID = memberID;
+        message.slot = slot;
         message.value = value;
         return message;
     }
 
+    /**
+     * Creates an ACCEPTED message, sent by an acceptor to the learners when it accepts a value, so learners can
+     * detect a chosen value without waiting for the proposer's LEARN
+     *
+     * @param memberID                      member ID of the acceptor
+     * @param accepted                      the value accepted, with its slot and proposal
+     * @return                              ACCEPTED type message
+     */
+    public static Message accepted(String memberID, SlotValue accepted) {
+        Message message = new Message();
+        message.type = "ACCEPTED";
+        message.proposalNumber = accepted.proposalNumber;
+        message.senderID = memberID;
+        message.slot = accepted.slot;
+        message.value = accepted.value;
+        message.accepted = Collections.singletonList(accepted);
+        return message;
+    }
+
     /**
      * Creates an ACK message
      *
@@ -251,6 +409,94 @@ public class Message {
         return message;
     }
 
+    /**
+     * Creates a READ_REQ message, asking the holder of a leader lease for the current log
+     *
+     * @param memberID                      member ID of sender
+     * @return                              READ_REQ type message
+     */
+    public static Message readRequest(String memberID) {
+        Message message = new Message();
+        message.type = "READ_REQ";
+        message.senderID = memberID;
+        return message;
+    }
+
+    /**
+     * Creates a READ message answering a READ_REQ
+     *
+     * @param memberID                      member ID of sender
+     * @param log                           the log, packed with Batch.encode
+     * @return                              READ type message
+     */
+    public static Message read(String memberID, String log) {
+        Message message = new Message();
+        message.type = "READ";
+        message.senderID = memberID;
+        message.value = log;
+        return message;
+    }
+
+    /**
+     * Creates a CATCHUP_REQ message, asking a peer's learner for the decisions it holds from a slot onwards. If the
+     * peer has compacted that slot into its snapshot, it replies with a chunk of the snapshot starting at `offset`
+     *
+     * @param memberID                      member ID of sender
+     * @param fromSlot                      first slot the sender has not learned
+     * @param offset                        index of the first snapshot value wanted: the number of values in the
+     *                                      sender's log below fromSlot, plus those already streamed
+     * @return                              CATCHUP_REQ type message
+     */
+    public static Message catchupRequest(String memberID, int fromSlot, int offset) {
+        Message message = new Message();
+        message.type = "CATCHUP_REQ";
+        message.senderID = memberID;
+        message.slot = fromSlot;
+        message.offset = offset;
+        return message;
+    }
+
+    /**
+     * Creates a CATCHUP message carrying one chunk of a snapshot
+     *
+     * @param memberID                      member ID of sender
+     * @param snapshotSlot                  slot of the snapshot, every slot below it is included
+     * @param offset                        index in the snapshot's values of the first value in the chunk
+     * @param total                         number of values in the snapshot
+     * @param chunk                         the chunk's values, packed with Batch.encode
+     * @return                              CATCHUP type message
+     */
+    public static Message catchupSnapshot(String memberID, int snapshotSlot, int offset, int total, String chunk) {
+        Message message = new Message();
+        message.type = "CATCHUP";
+        message.senderID = memberID;
+        message.slot = snapshotSlot;
+        message.offset = offset;
+        message.total = total;
+        message.value = chunk;
+        return message;
+    }
+
+    /**
+     * Creates a CATCHUP message carrying learned values after the sender's snapshot
+     *
+     * @param memberID                      member ID of sender
+     * @param fromSlot                      the slot requested
+     * @param learned                       learned values in slots >= fromSlot, in slot order
+     * @param total                         learned slots the sender holds from fromSlot, more than learned.size() if
+     *                                      the rest did not fit in this message
+     * @return                              CATCHUP type message
+     */
+    public static Message catchupTail(String memberID, int fromSlot, List<SlotValue> learned, int total) {
+        Message message = new Message();
+        message.type = "CATCHUP";
+        message.senderID = memberID;
+        message.slot = fromSlot;
+        message.accepted = learned;
+        message.total = total;
+        return message;
+    }
+
     /**
      * Creates an NACK message.
      *
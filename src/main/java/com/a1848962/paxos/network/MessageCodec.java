@@ -0,0 +1,27 @@
+package com.a1848962.paxos.network;
+
+/**
+ * Converts Message objects to and from the payload bytes carried in a Frame. All members must use the same codec,
+ * which is selected with the `codec` property in member.properties.
+ */
+public interface MessageCodec {
+    byte[] encode(Message message);
+    Message decode(byte[] bytes);
+
+    /**
+     * Returns the codec with the given name.
+     *
+     * @param name  one of: binary, json
+     * @return      the matching codec
+     */
+    static MessageCodec forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "binary":
+                return new BinaryCodec();
+            case "json":
+                return new JsonCodec();
+            default:
+                throw new IllegalArgumentException("Unknown message codec: " + name + ". Expected one of: binary, json");
+        }
+    }
+}
@@ -1,27 +1,46 @@
 package com.a1848962.paxos.network;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.function.Predicate;
 
+import com.a1848962.paxos.utils.MemberConfig;
 import com.a1848962.paxos.utils.SimpleLogger;
+import com.a1848962.paxos.utils.ThreadPools;
 
 /**
- *  Network infrastructure class to listen for incoming messages, unmarshall them and pass them to the parent member
+ *  Network infrastructure class to listen for incoming messages, unmarshall them and pass them to the parent member.
+ *  A single I/O thread multiplexes all connections with a Selector, and complete frames are dispatched to a
+ *  bounded pool of worker threads so that handlers may block (e.g. for simulated delays) without stalling I/O.
+ *  Requests on the same connection are handled concurrently, and each response is framed with the ID of the request
+ *  it answers. When the worker pool is saturated, requests are answered immediately with a REJECT or NACK so the
+ *  sender learns of the overload instead of waiting for a timeout.
  */
 public class Network {
 
-    private ServerSocket serverSocket;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int LOCAL_RESPONSE_TIMEOUT = 4000; // time in ms to wait for a local handler to respond
+
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread ioThread;
+    private volatile boolean running = false;
+    private final String memberID;
     private final int listenPort;
 
     private final PaxosHandler handler;
 
     private static final SimpleLogger log = new SimpleLogger("NETWORK");
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExecutorService workers;
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>(); // connections with queued output
+    private final ScheduledExecutorService localTimeouts;
 
     /**
      * Silences log output
@@ -41,72 +60,338 @@ public class Network {
      * Interface to handle received messages. This is my first attempt at using an interface.
      */
     public interface PaxosHandler {
-        void handleIncomingMessage(Message message, OutputStream socketOut);
+        void handleIncomingMessage(Message message, Responder responder);
+    }
+
+    /**
+     * Sends the response to one specific request. Each incoming message gets its own Responder, which tags the
+     * response with the request ID of that message so the sender can match it to the right pending request.
+     */
+    public interface Responder {
+        void respond(Message response);
+    }
+
+    /**
+     * State for a single accepted connection. Incoming bytes are accumulated until a frame is complete, and outgoing
+     * responses are queued until the channel is writable. Only the I/O thread reads from or writes to the channel.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer inbound = ByteBuffer.allocate(READ_BUFFER_SIZE); // received bytes, in write mode
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Appends newly read bytes and dispatches every complete frame to a worker.
+         */
+        void onBytes(ByteBuffer buffer) throws IOException {
+            if (inbound.remaining() < buffer.remaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(inbound.capacity() * 2, inbound.position() + buffer.remaining()));
+                inbound.flip();
+                larger.put(inbound);
+                inbound = larger;
+            }
+            inbound.put(buffer);
+
+            inbound.flip();
+            Frame frame;
+            while ((frame = Frame.decode(inbound)) != null) {
+                dispatch(frame);
+            }
+            inbound.compact(); // keep any partial frame for the next read
+        }
+
+        private void dispatch(Frame frame) {
+            try {
+                workers.execute(() -> {
+                    Message receivedMessage = Message.unmarshall(frame.payload);
+                    handler.handleIncomingMessage(receivedMessage,
+                            response -> enqueue(Frame.encode(frame.requestId, response.marshall())));
+                });
+            } catch (RejectedExecutionException ex) {
+                if (!running) return;
+                // all workers busy and queue full, answer straight from the I/O thread so the sender can back off
+                Message response;
+                try {
+                    response = overloadResponse(Message.unmarshall(frame.payload));
+                } catch (RuntimeException malformed) {
+                    response = null; // cannot tell what was asked, let the sender time out
+                }
+                if (response != null) enqueue(Frame.encode(frame.requestId, response.marshall()));
+                log.warn(memberID + ": worker pool saturated, rejecting incoming message");
+            }
+        }
+
+        /**
+         * Queues a response for the I/O thread to write. Safe to call from any thread.
+         */
+        void enqueue(byte[] bytes) {
+            if (!channel.isOpen()) {
+                log.info("Network: connection closed before response could be sent");
+                return;
+            }
+            writeQueue.add(ByteBuffer.wrap(bytes));
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Writes as much queued output as the channel will accept. Called on the I/O thread only.
+         *
+         * @return  true if all queued output has been written
+         */
+        boolean flushQueue() throws IOException {
+            ByteBuffer next;
+            while ((next = writeQueue.peek()) != null) {
+                channel.write(next);
+                if (next.hasRemaining()) return false; // socket buffer full, wait for OP_WRITE
+                writeQueue.poll();
+            }
+            return true;
+        }
     }
 
-    public Network(int listenPort, PaxosHandler handler) {
+    /**
+     * @param memberID          ID of the member this network belongs to
+     * @param listenPort        port to accept connections on
+     * @param workerThreads     number of threads available to message handlers
+     * @param workerQueue       messages that may wait for a worker before further messages are rejected
+     * @param handler           handler for incoming messages
+     */
+    public Network(String memberID, int listenPort, int workerThreads, int workerQueue, PaxosHandler handler) {
+        this.memberID = memberID;
         this.listenPort = listenPort;
         this.handler = handler;
+        this.workers = ThreadPools.bounded(memberID + "-worker", workerThreads, workerQueue);
+        this.localTimeouts = ThreadPools.scheduled(memberID + "-local-timeout", 1);
+    }
+
+    /**
+     * Response sent in place of running the handler when the worker pool is saturated. Requests are refused without
+     * any promise information (highestPromisedProposal stays -1), so the proposer treats them like a lost reply.
+     *
+     * @param request   the message that could not be handled
+     * @return          REJECT for prepare/accept requests, NACK for LEARN, otherwise null (no response)
+     */
+    private Message overloadResponse(Message request) {
+        switch (request.type) {
+            case "PREPARE_REQ":
+            case "ACCEPT_REQ":
+                Message reject = Message.reject(request.proposalNumber, memberID, -1);
+                reject.slot = request.slot;
+                return reject;
+            case "LEARN":
+                return Message.nack(memberID);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Sends a message to a member. Messages addressed to this member are delivered in-process. Once the network is
+     * shut down, nothing is sent and the returned future completes with null.
+     *
+     * @param message       the message to send
+     * @param recipient     network information of recipient
+     * @return              CompletableFuture<Message> containing response, or null on failure
+     */
+    public CompletableFuture<Message> send(Message message, MemberConfig.MemberInfo recipient) {
+        if (!running) return CompletableFuture.completedFuture(null); // shut down, e.g. retries must not outlive member
+        if (isLocal(recipient)) return deliverLocally(message);
+        return message.send(recipient);
+    }
+
+    /**
+     * Broadcasts a message and returns a future completing on the fastest quorum of matching replies (see
+     * Broadcast.toQuorum). If this member is one of the recipients, its copy is delivered in-process.
+     */
+    public QuorumFuture broadcast(Message message, Collection<MemberConfig.MemberInfo> recipients, int quorum,
+                                  Predicate<Message> matcher) {
+        return Broadcast.toQuorum(message, recipients, quorum, matcher, this);
+    }
+
+    /**
+     * Broadcasts a message to the first `quorum` recipients only, falling back to the rest if they are too slow or
+     * do not all reply with a match (see Broadcast.toQuorumThrifty).
+     */
+    public QuorumFuture broadcastThrifty(Message message, List<MemberConfig.MemberInfo> recipients, int quorum,
+                                         Predicate<Message> matcher, long fallbackDelay) {
+        return Broadcast.toQuorumThrifty(message, recipients, quorum, matcher, this, fallbackDelay, localTimeouts);
+    }
+
+    boolean isLocal(MemberConfig.MemberInfo recipient) {
+        return recipient.id.equals(memberID);
+    }
+
+    /**
+     * Passes a message straight to this member's handler, without a socket or any serialisation. The handler runs on
+     * a worker thread as if the message had arrived over the network, and its response completes the returned
+     * future directly. If the handler does not respond (e.g. simulated unreliability), the future completes with
+     * null after LOCAL_RESPONSE_TIMEOUT, matching a lost remote reply. If the worker pool is saturated, the future
+     * completes with the same REJECT/NACK a remote sender would receive.
+     *
+     * @param message   the message to deliver
+     * @return          CompletableFuture<Message> containing response, or null on failure
+     */
+    CompletableFuture<Message> deliverLocally(Message message) {
+        CompletableFuture<Message> response = new CompletableFuture<>();
+        try {
+            workers.execute(() -> handler.handleIncomingMessage(message, response::complete));
+            ScheduledFuture<?> timeout = localTimeouts.schedule(() -> response.complete(null),
+                    LOCAL_RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+            response.whenComplete((r, ex) -> timeout.cancel(false));
+        } catch (RejectedExecutionException ex) {
+            response.complete(running ? overloadResponse(message) : null);
+        }
+        return response;
     }
 
     /**
-     * Establish a ServerSocket listening on listenPort
+     * Bind a non-blocking ServerSocketChannel to listenPort and start the I/O thread
      */
     public void start() {
-        // use executor service to handle incoming connections
-        executor.submit(() -> {
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(listenPort));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ex) {
+            log.error("Network: error starting server on port " + listenPort + " - " + ex.getMessage());
+            if (selector != null) closeAll();
+            return;
+        }
+        log.info("Member listening on port " + listenPort);
+
+        running = true;
+        ioThread = new Thread(this::eventLoop, "network-io-" + listenPort);
+        ioThread.start();
+    }
+
+    /**
+     * Selector loop. Accepts connections, reads incoming bytes and writes queued responses.
+     */
+    private void eventLoop() {
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        while (running) {
             try {
-                serverSocket = new ServerSocket(listenPort);
-                log.info("Member listening on port " + listenPort);
-
-                while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                        Socket clientSocket = serverSocket.accept();
-                        executor.submit(() -> connectionHandler(clientSocket));
-                    } catch (IOException ex) {
-                        log.error("Network: error accepting connection - " + ex.getMessage());
+                selector.select();
+                processPendingWrites();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        if (key.isReadable()) read(key, readBuffer);
+                        if (key.isValid() && key.isWritable()) write(key);
                     }
                 }
             } catch (IOException ex) {
-                log.error("Network: error starting server on port " + listenPort + " - " + ex.getMessage());
+                log.error("Network: error in event loop - " + ex.getMessage());
             }
-        });
+        }
+        closeAll();
     }
 
     /**
-     * Unmarshall incoming messages and pass them to handleIncomingMessage
-     *
-     * @param socket    client socket
+     * Closes the listener and every open connection, so that a shut down member stops responding immediately. Called
+     * on the I/O thread as it exits.
      */
-    private void connectionHandler(Socket socket) {
+    private void closeAll() {
         try {
-            BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            OutputStream socketOut = socket.getOutputStream();
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ex) {
+            log.warn("Error closing connections - " + ex.getMessage());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
 
-            String receivedString = socketIn.readLine();
-            if (receivedString != null && !receivedString.isEmpty()) {
-                Message receivedMessage = Message.unmarshall(receivedString);
-                handler.handleIncomingMessage(receivedMessage, socketOut);
+    private void read(SelectionKey key, ByteBuffer readBuffer) {
+        Connection connection = (Connection) key.attachment();
+        readBuffer.clear();
+        try {
+            int read = connection.channel.read(readBuffer);
+            if (read < 0) {
+                close(key); // sender closed the connection
+                return;
             }
+            readBuffer.flip();
+            connection.onBytes(readBuffer);
+        } catch (IOException ex) {
+            // includes malformed frames, the stream cannot be resynchronised so drop the connection
+            log.info("Network: connection closed - " + ex.getMessage());
+            close(key);
+        }
+    }
+
+    private void write(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (connection.flushQueue()) key.interestOps(SelectionKey.OP_READ);
         } catch (IOException ex) {
-            log.error("Network: Error handling incoming connection - " + ex.getMessage());
+            log.info("Network: error writing response - " + ex.getMessage());
+            close(key);
         }
     }
 
     /**
-     * Shuts down ServerSocket listener. This function was written with the assistance of AI.
+     * Attempts to write responses queued by workers since the last select, registering for OP_WRITE if the socket
+     * buffer fills up.
      */
-    public void shutdown() {
-        if (serverSocket != null && !serverSocket.isClosed()) {
+    private void processPendingWrites() {
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.channel.keyFor(selector);
+            if (key == null || !key.isValid()) continue;
             try {
-                serverSocket.close();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                if (!connection.flushQueue()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException ex) {
+                log.info("Network: error writing response - " + ex.getMessage());
+                close(key);
             }
         }
-        executor.shutdownNow();
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // channel is being discarded anyway
+        }
+    }
+
+    /**
+     * Shuts down the listener, closes all connections and stops the worker pool. This function was written with the
+     * assistance of AI.
+     */
+    public void shutdown() {
+        running = false;
+        if (selector != null) selector.wakeup(); // I/O thread closes all channels as it exits
+        workers.shutdownNow();
+        localTimeouts.shutdownNow();
         try {
-            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+            if (ioThread != null) ioThread.join(5000);
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
                 log.warn("Executor did not terminate in the specified time.");
             }
         } catch (InterruptedException e) {
@@ -115,4 +400,4 @@ public class Network {
         }
         log.info("Network shutdown complete");
     }
-}
\ No newline at end of file
+}
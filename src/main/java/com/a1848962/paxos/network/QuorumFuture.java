@@ -0,0 +1,91 @@
+package com.a1848962.paxos.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Future for a broadcast that needs a quorum of matching replies. Completes with the matching replies as soon as
+ * `quorum` of them have arrived, or exceptionally with QuorumUnreachableException once too many recipients have
+ * failed or replied with something else for a quorum to still be possible. Either way, requests that are still
+ * outstanding are cancelled and any late replies are ignored.
+ */
+public class QuorumFuture extends CompletableFuture<List<Message>> {
+    private final int quorum;
+    private final int recipients;
+    private final Predicate<Message> matcher;
+    private final List<Message> matched = new ArrayList<>(); // guarded by this
+    private int unmatched = 0; // non-matching replies and failed sends, guarded by this
+    private final List<CompletableFuture<Message>> requests = new ArrayList<>();
+    private volatile Runnable onShortfall = null; // called on each non-matching reply or failed send
+
+    /**
+     * Thrown (as the cause of exceptional completion) when a quorum can no longer be reached.
+     */
+    public static class QuorumUnreachableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public final int matched;
+        public final int unmatched;
+
+        QuorumUnreachableException(int matched, int unmatched, int quorum) {
+            super("Quorum of " + quorum + " unreachable: " + matched + " matching, " + unmatched + " rejected or failed");
+            this.matched = matched;
+            this.unmatched = unmatched;
+        }
+    }
+
+    QuorumFuture(int quorum, int recipients, Predicate<Message> matcher) {
+        this.quorum = quorum;
+        this.recipients = recipients;
+        this.matcher = matcher;
+        whenComplete((replies, ex) -> cancelOutstanding());
+        if (recipients < quorum) completeExceptionally(new QuorumUnreachableException(0, 0, quorum));
+    }
+
+    /**
+     * Registers a request so it can be cancelled once the outcome is known, and counts its reply when it arrives.
+     */
+    void track(CompletableFuture<Message> request) {
+        synchronized (requests) {
+            requests.add(request);
+        }
+        if (isDone()) request.cancel(false);
+        request.whenComplete((reply, ex) -> onReply(ex == null ? reply : null));
+    }
+
+    /**
+     * Registers a callback run whenever a reply does not count towards the quorum (see Broadcast.toQuorumThrifty).
+     */
+    void onShortfall(Runnable callback) {
+        this.onShortfall = callback;
+    }
+
+    private void onReply(Message reply) {
+        if (isDone()) return; // straggler, outcome already decided
+        // evaluate outside the lock, the matcher may be slow (e.g. simulated proposer delay)
+        boolean matches = reply != null && matcher.test(reply);
+        synchronized (this) {
+            if (isDone()) return;
+            if (matches) matched.add(reply);
+            else unmatched++;
+
+            if (matched.size() >= quorum) {
+                complete(new ArrayList<>(matched));
+            } else if (recipients - unmatched < quorum) {
+                completeExceptionally(new QuorumUnreachableException(matched.size(), unmatched, quorum));
+            }
+        }
+        Runnable callback = onShortfall;
+        if (!matches && callback != null && !isDone()) callback.run();
+    }
+
+    private void cancelOutstanding() {
+        synchronized (requests) {
+            for (CompletableFuture<Message> request : requests) {
+                request.cancel(false);
+            }
+        }
+    }
+}
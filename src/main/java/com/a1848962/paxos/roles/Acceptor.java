@@ -1,26 +1,187 @@
 package com.a1848962.paxos.roles;
 
 import com.a1848962.paxos.network.*;
+import com.a1848962.paxos.storage.LogEntry;
+import com.a1848962.paxos.storage.LogStore;
+import com.a1848962.paxos.utils.Ballot;
+import com.a1848962.paxos.utils.MemberConfig;
 import com.a1848962.paxos.utils.SimpleLogger;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.util.concurrent.atomic.AtomicInteger;
-
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Acceptor class implementing the acceptor role for a slot-indexed log. A single promise covers every slot from the
+ * prepared slot onwards, so a leader only needs one phase one to propose in any number of later slots, while accepted
+ * values are stored per slot.
+ * <p>
+ * Accepting an ACCEPT_REQ that requests a lease grants its proposer a leader lease: until the lease runs out, PREPARE_REQ
+ * from any other proposer is rejected. A leader holding leases from a majority therefore knows no other proposer can
+ * get a value chosen, and can answer reads from its own log.
+ * <p>
+ * With mencius set, each slot's owner (see MemberConfig.slotOwner) may propose in it with a round 0 ballot, without
+ * phase one. Such an ACCEPT_REQ is accepted as long as no proposer has been promised a ballot of round 1 or above,
+ * and does not raise the promise, as the owners' round 0 ballots apply to disjoint slots.
+ * <p>
+ * Every promise and accepted value is appended to a LogStore (see the durability property), and a response is only
+ * sent once the state it was decided against is durable, so an acceptor that restarts recovers its state and never
+ * breaks a promise. Leases are not logged: a recovered acceptor instead refuses every PREPARE_REQ for one lease
+ * duration, covering any lease it granted before the restart.
+ * <p>
+ * Once the member's learner has snapshotted every slot below some slot, the accepted values below it are compacted
+ * away. Those slots are already chosen, so a PROMISE reports the compaction point as its slot, telling the proposer
+ * to skip them, and an ACCEPT_REQ for them is rejected.
+ * <p>
+ * Handlers take no lock. The promise, lease and compaction point form an immutable State, replaced as a whole by
+ * compare-and-set, and every request is decided against the State it swaps in, so concurrent PREPARE_REQs and
+ * ACCEPT_REQs never wait for each other. Accepted values live in a concurrent map beside it. An accept stores its
+ * value before swapping in its State, so a PROMISE, which reads the values after swapping in its own State, lists
+ * every value accepted before it. If the swap fails and the request is then rejected, the value is left in place: it
+ * really was proposed with its ballot, so reporting it in a later PROMISE is as safe as reporting a value whose ACCEPT
+ * was lost, and it never displaces a value accepted with a higher ballot.
+ */
 public class Acceptor implements Member.AcceptorRole {
     private final Member member; // reference to parent member object
+    private final int group; // Paxos group this acceptor belongs to
 
-    // thread-safe data types to store the highest promised proposal, highest accepted proposal and its associated value
-    private final AtomicInteger highestPromise = new AtomicInteger();
-    private final StringBuilder highestPromiseProposerID = new StringBuilder("M0");
-    private final StringBuilder acceptedValue = new StringBuilder();
+    private final AtomicReference<State> state; // replaced by compare-and-set, see State
+    private final ConcurrentSkipListMap<Integer, Message.SlotValue> accepted = new ConcurrentSkipListMap<>(); // slot -> value
+    private final LogStore store; // durable copy of the promise and accepted
+    private final boolean durable; // false with durability none, when appends are skipped
 
     // utility variables
-    private final Object promiseLock = new Object(); // lock to ensure atomicity
+    private static final CompletableFuture<Void> WRITTEN = CompletableFuture.completedFuture(null); // nothing to wait for
     private static final SimpleLogger log = new SimpleLogger("ACCEPTOR");
 
-    public Acceptor(Member member) {
+    /**
+     * The acceptor's promise and lease. Immutable: a handler builds the State its request leads to and swaps it in
+     * with compare-and-set, retrying against the newer State if another handler got there first.
+     */
+    private static final class State {
+        final long promise; // highest promised proposal, ballots order with a single comparison, see Ballot
+        final int compactedBelow; // slots below this are chosen and their accepted values discarded
+        final String leaseHolder; // proposer granted the latest lease
+        final long leaseExpiry; // System.nanoTime() at which the lease runs out
+        final CompletableFuture<Void> written; // completes once this State and every earlier one is in the store
+
+        State(long promise, int compactedBelow, String leaseHolder, long leaseExpiry, CompletableFuture<Void> written) {
+            this.promise = promise;
+            this.compactedBelow = compactedBelow;
+            this.leaseHolder = leaseHolder;
+            this.leaseExpiry = leaseExpiry;
+            this.written = written;
+        }
+
+        State promising(long ballot, CompletableFuture<Void> write) {
+            return new State(ballot, compactedBelow, leaseHolder, leaseExpiry, after(write));
+        }
+
+        State accepting(long ballot, String holder, long expiry, CompletableFuture<Void> write) {
+            return new State(ballot, compactedBelow, holder, expiry, after(write));
+        }
+
+        State compacting(int slot) {
+            return new State(promise, slot, leaseHolder, leaseExpiry, written);
+        }
+
+        /**
+         * Appends are queued in whatever order handlers reach the store, not in State order, so a State is only
+         * written once the earlier States are too. An earlier write that failed fails every later State with it.
+         */
+        private CompletableFuture<Void> after(CompletableFuture<Void> write) {
+            return written.isDone() && !written.isCompletedExceptionally() ? write : CompletableFuture.allOf(written, write);
+        }
+
+        /**
+         * @param proposerID    the proposer asking for a promise
+         * @return              true if another proposer holds a lease that has not yet run out
+         */
+        boolean leaseHeldByOther(String proposerID) {
+            return leaseHolder != null && !leaseHolder.equals(proposerID) && System.nanoTime() - leaseExpiry < 0;
+        }
+    }
+
+    public Acceptor(Member member, int group) {
+        this(member, group, LogStore.open(member.config.storage, member.config.durability,
+                Paths.get(member.config.storageDir, member.config.memberID, "acceptor-" + group)));
+    }
+
+    /**
+     * @param store     store to log state to, opened for the member's durability
+     */
+    Acceptor(Member member, int group, LogStore store) {
         this.member = member;
+        this.group = group;
+        this.store = store;
+        this.durable = !member.config.durability.trim().equalsIgnoreCase("none");
+        this.state = new AtomicReference<>(recover());
+    }
+
+    /**
+     * Restores the promise and accepted values from the store.
+     *
+     * @return  the recovered State
+     */
+    private State recover() {
+        List<LogEntry> entries = store.recover();
+        if (entries.isEmpty()) return new State(Ballot.NONE, 0, null, 0, WRITTEN);
+
+        long highestPromise = Ballot.NONE;
+        int compactedBelow = 0;
+        for (LogEntry entry : entries) {
+            if (entry.type == LogEntry.Type.COMPACTED) {
+                compactedBelow = Math.max(compactedBelow, entry.slot);
+                continue;
+            }
+            if (entry.type == LogEntry.Type.ACCEPT) {
+                Message.SlotValue previous = accepted.get(entry.slot); // appends can land out of ballot order
+                if (previous == null || entry.ballot >= previous.proposalNumber) {
+                    accepted.put(entry.slot, entry.toSlotValue());
+                }
+                if (Ballot.round(entry.ballot) == 0) continue; // mencius owner round, did not raise the promise
+            }
+            highestPromise = Math.max(highestPromise, entry.ballot);
+        }
+        accepted.headMap(compactedBelow).clear();
+        String leaseHolder = null;
+        long leaseExpiry = 0;
+        if (member.config.leaseDuration > 0) {
+            leaseHolder = ""; // unknown, matches no proposer
+            leaseExpiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(member.config.leaseDuration);
+        }
+        log.info(member.config.memberID + ": Recovered promise " + Ballot.toString(highestPromise) + " and "
+                + accepted.size() + " accepted values from storage");
+        return new State(highestPromise, compactedBelow, leaseHolder, leaseExpiry, WRITTEN);
+    }
+
+    /**
+     * Discards the accepted values below a slot, in memory and in the store. Called on the member's compaction thread
+     * once its learner has snapshotted every slot below `slot`, so they are all chosen.
+     *
+     * @param slot  every slot below this is chosen
+     */
+    @Override
+    public void compact(int slot) {
+        State current;
+        do {
+            current = state.get();
+            if (slot <= current.compactedBelow) return;
+        } while (!state.compareAndSet(current, current.compacting(slot)));
+        accepted.headMap(slot).clear();
+        store.compact(slot);
+    }
+
+    /**
+     * Waits for pending writes, then closes the store.
+     */
+    @Override
+    public void shutdown() {
+        store.close();
     }
 
     /**
@@ -40,174 +201,210 @@ public class Acceptor implements Member.AcceptorRole {
     }
 
     /**
-     * Handles an incoming PREPARE_REQ type message. If incoming proposal number is greater than any previous proposal
-     * number seen by the acceptor:
-     *  - Acceptor responds with a PROMISE to ignore all future proposals with a number < n
-     *  - If the acceptor accepted a proposal at some point in the past, it must include the previous proposal number
-     *    and value in its response to the proposer
+     * Handles an incoming PREPARE_REQ type message. If the incoming ballot is at least as high as any ballot promised
+     * so far:
+     *  - Acceptor responds with a PROMISE to ignore all future proposals lower than it, in every slot
+     *  - The PROMISE includes every value the acceptor has accepted in the prepared slot or later, with the proposal
+     *    it was accepted in, so the proposer can re-propose them
      * Otherwise, send REJECT.
      *
      * @param message       incoming PREPARE_REQ type message
-     * @param socketOut     socket for response
+     * @param responder     sends the response to the proposer
      */
     @Override
-    public void handlePrepareRequest(Message message, OutputStream socketOut) {
+    public void handlePrepareRequest(Message message, Network.Responder responder) {
 
         // simulate node reliability (includes changes due to coorong/sheoak)
         if (member.simulateNodeReliability()) return;
 
         // simulate node delays (includes changes due to coorong/sheoak)
         try {
-            Thread.sleep(member.simulateNodeDelay());
+            long delay = member.simulateNodeDelay();
+            if (delay > 0) Thread.sleep(delay); // sleep(0) still yields the processor
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
 
         log.info(member.config.memberID + ": Handling PREPARE request from " + message.senderID);
 
-        Message response; // declare response message
-
-        // parse incoming senderID and current promised ID to integers for comparison
-        int incomingProposerID = Integer.parseInt(message.senderID.substring(1));
-        int currentPromisedProposerID = Integer.parseInt(highestPromiseProposerID.substring(1));
-
-        synchronized (promiseLock) { // ensure atomicity between highestPromise and highestPromiseProposerID
-            if (highestPromise.get() < message.proposalNumber) {
-                // new highest proposalID, send promise
-                int previousHighestPromise = highestPromise.getAndSet(message.proposalNumber);
-                highestPromiseProposerID.setLength(0);
-                highestPromiseProposerID.append(message.senderID);
-
-                response = createPromiseMessage(message.proposalNumber, previousHighestPromise);
-            } else if (highestPromise.get() == message.proposalNumber && incomingProposerID < currentPromisedProposerID) {
-                // same proposalID, but incoming proposer has a lower memberID (higher priority)
-                // send promise:
-                highestPromiseProposerID.setLength(0);
-                highestPromiseProposerID.append(message.senderID);
-
-                response = createPromiseMessage(message.proposalNumber, highestPromise.get());
-            } else {
+        while (true) {
+            State current = state.get();
+            if (current.leaseHeldByOther(message.senderID)) {
+                log.info(member.config.memberID + ": Rejecting PREPARE_REQ from " + message.senderID + " for proposal "
+                        + Ballot.toString(message.proposalNumber) + " due to lease held by " + current.leaseHolder);
+                Message response = Message.reject(message.proposalNumber, member.config.memberID, current.promise);
+                response.slot = message.slot;
+                respondWhenWritten(current.written, response, responder, null);
+                return;
+            }
+            if (message.proposalNumber < current.promise) {
                 // criteria for a promise response not met
-                response = createRejectMessage(message);
+                respondWhenWritten(current.written, createRejectMessage(message, current.promise), responder, null);
+                return;
+            }
+
+            State promised = current;
+            if (message.proposalNumber > current.promise) {
+                CompletableFuture<Void> write = durable ? new CompletableFuture<>() : WRITTEN;
+                promised = current.promising(message.proposalNumber, write);
+                if (!state.compareAndSet(current, promised)) continue; // changed since read, decide again
+                if (durable) completeWith(write, store.append(LogEntry.promise(message.proposalNumber)));
             }
 
-            sendResponse(response, socketOut);
+            int fromSlot = Math.max(message.slot, promised.compactedBelow); // earlier slots are chosen, see class comment
+            List<Message.SlotValue> previouslyAccepted = new ArrayList<>(accepted.tailMap(fromSlot).values());
+            log.info(member.config.memberID + ": Sending PROMISE for proposal " + Ballot.toString(message.proposalNumber) + " from slot "
+                    + fromSlot + " with " + previouslyAccepted.size() + " previously accepted values");
+            Message response = Message.promise(message.proposalNumber, member.config.memberID, fromSlot, previouslyAccepted);
+            respondWhenWritten(promised.written, response, responder, null); // the response may reveal any state logged so far
+            return;
         }
     }
 
 
     /**
-     * Handles an incoming ACCEPT_REQ type message. Sends ACCEPT iff acceptor has not already sent a PROMISE to a
-     * greater proposal number. If it has, responds with REJECT
+     * Handles an incoming ACCEPT_REQ type message. Sends ACCEPT and stores the value for the message's slot iff the
+     * acceptor has not already promised a higher proposal. If it has, responds with REJECT. With notify_learners set,
+     * the acceptance is also sent to every learner (see notifyLearners).
      *
      * @param message       incoming ACCEPT_REQ type message
-     * @param socketOut     socket for response
+     * @param responder     sends the response to the proposer
      */
     @Override
-    public void handleAcceptRequest(Message message, OutputStream socketOut) {
+    public void handleAcceptRequest(Message message, Network.Responder responder) {
 
         // simulate node reliability (includes changes due to coorong/sheoak)
         if (member.simulateNodeReliability()) return;
 
         // simulate node delays (includes changes due to coorong/sheoak)
         try {
-            Thread.sleep(member.simulateNodeDelay());
+            long delay = member.simulateNodeDelay();
+            if (delay > 0) Thread.sleep(delay); // sleep(0) still yields the processor
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
 
         log.info(member.config.memberID + ": Handling ACCEPT request from " + message.senderID);
 
-        Message response;
-
-        // parse incoming senderID and current promised ID to integers for comparison
-        int incomingProposerID = Integer.parseInt(message.senderID.substring(1));
-        int currentPromisedProposerID = Integer.parseInt(highestPromiseProposerID.substring(1));
-
-        synchronized (promiseLock) { // ensure atomicity between highestPromise and highestPromiseProposerID
-            if (highestPromise.get() <= message.proposalNumber) {
-                // new highest proposalNumber
-                // send accept and update highest promise:
-                highestPromiseProposerID.setLength(0);
-                highestPromiseProposerID.append(message.senderID);
-                acceptedValue.setLength(0);
-                acceptedValue.append(message.value);
-
-                response = Message.accept(message.proposalNumber, member.config.memberID, message.value);
-                log.info(member.config.memberID + ": Sending ACCEPT for proposal " + message.proposalNumber);
-            } else if (highestPromise.get() == message.proposalNumber && incomingProposerID < currentPromisedProposerID) {
-                // same proposalID and is the original proposer, and incoming proposer has a lower memberID (higher priority)
-                // send accept:
-                highestPromiseProposerID.setLength(0);
-                highestPromiseProposerID.append(message.senderID);
-                acceptedValue.setLength(0);
-                acceptedValue.append(message.value);
-
-                response = Message.accept(message.proposalNumber, member.config.memberID, message.value);
-                log.info(member.config.memberID + ": Sending ACCEPT for proposal " + message.proposalNumber + " from higher priority proposer " + message.senderID);
-            } else {
+        boolean ownerRound = member.config.mencius && Ballot.round(message.proposalNumber) == 0;
+        Message.SlotValue acceptedValue = new Message.SlotValue(message.slot, message.proposalNumber, message.senderID, message.value);
+        boolean stored = false;
+        while (true) {
+            State current = state.get();
+            if (message.slot < current.compactedBelow) {
+                log.info(member.config.memberID + ": Rejecting ACCEPT_REQ from " + message.senderID + " for slot "
+                        + message.slot + ", which was chosen and compacted");
+                if (stored) accepted.remove(message.slot, acceptedValue); // compacted while swapping, nothing to keep
+                Message response = Message.reject(message.proposalNumber, member.config.memberID, current.promise);
+                response.slot = message.slot;
+                respondWhenWritten(current.written, response, responder, null);
+                return;
+            }
+            if (!(ownerRound ? ownerMayPropose(message, current) : message.proposalNumber >= current.promise)) {
                 // criteria for an accept response not met
                 // send reject:
-                response = createRejectMessage(message);
+                respondWhenWritten(current.written, createRejectMessage(message, current.promise), responder, null);
+                return;
             }
 
-            sendResponse(response, socketOut);
+            // proposal is at least as high as the current promise, accept and update highest promise:
+            if (!stored) {
+                // stored before the State is swapped in, see class comment. Accepts of one slot may race, the value
+                // with the higher ballot is kept as it is the one accepted last
+                Message.SlotValue previous = accepted.putIfAbsent(message.slot, acceptedValue);
+                while (previous != null && previous.proposalNumber <= acceptedValue.proposalNumber
+                        && !accepted.replace(message.slot, previous, acceptedValue)) {
+                    previous = accepted.get(message.slot);
+                }
+                stored = true;
+            }
+            CompletableFuture<Void> write = durable ? new CompletableFuture<>() : WRITTEN;
+            State accepting = current.accepting(ownerRound ? current.promise : message.proposalNumber,
+                    message.lease > 0 ? message.senderID : current.leaseHolder,
+                    message.lease > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(message.lease) : current.leaseExpiry,
+                    write);
+            if (!state.compareAndSet(current, accepting)) continue; // changed since read, decide again
+            // appended after the CAS, so a lower ballot's entry may follow this one; recovery keeps the higher ballot
+            if (durable) completeWith(write, store.append(LogEntry.accept(acceptedValue)));
+
+            Message response = Message.accept(message.proposalNumber, member.config.memberID, message.slot, message.value);
+            log.info(member.config.memberID + ": Sending ACCEPT for proposal " + Ballot.toString(message.proposalNumber) + " in slot " + message.slot);
+            respondWhenWritten(accepting.written, response, responder, member.config.notifyLearners ? acceptedValue : null);
+            return;
         }
     }
 
     /**
-     * Creates a promise type message containing any previously accepted value.
+     * Completes a State's write future with the outcome of its append to the store.
+     */
+    private static void completeWith(CompletableFuture<Void> write, CompletableFuture<Void> append) {
+        append.whenComplete((ignored, ex) -> {
+            if (ex != null) write.completeExceptionally(ex);
+            else write.complete(null);
+        });
+    }
+
+    /**
+     * Sends a response once the state it depends on is durable. If the write failed, the acceptor cannot vouch for
+     * its state, so it stays silent and the proposer treats the request as lost.
      *
-     * @param proposalNumber            proposal number of proposal being promised
-     * @param previousHighestPromise    previous highest promised proposal number
-     * @return                          a PROMISE type Message
+     * @param written           write of the State the response was decided against
+     * @param response          the response
+     * @param responder         sends the response to the proposer
+     * @param acceptedValue     value to notify learners of once written, or null
      */
-    private Message createPromiseMessage(int proposalNumber, int previousHighestPromise) {
-        if (acceptedValue.length() > 0) {
-            log.info(member.config.memberID + ": Sending PROMISE for proposal " + proposalNumber
-                    + " with previously accepted value '" + acceptedValue + "' from proposal " + previousHighestPromise);
-            return Message.promise(proposalNumber, member.config.memberID, previousHighestPromise, acceptedValue.toString());
-        } else {
-            log.info(member.config.memberID + ": Sending PROMISE for proposal " + proposalNumber + " with no previously accepted value");
-            return Message.promise(proposalNumber, member.config.memberID);
-        }
+    private void respondWhenWritten(CompletableFuture<Void> written, Message response, Network.Responder responder,
+                                    Message.SlotValue acceptedValue) {
+        written.whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                log.error(member.config.memberID + ": Not responding to " + response.type + " as state could not be stored: " + ex.getMessage());
+                return;
+            }
+            responder.respond(response);
+            if (acceptedValue != null) notifyLearners(acceptedValue);
+        });
     }
 
     /**
-     * Creates a reject type message any previously accepted values.
+     * @param message   a round 0 ACCEPT_REQ
+     * @param current   the State the request is decided against
+     * @return          true if the sender owns the slot and no proposer has since run phase one
+     */
+    private boolean ownerMayPropose(Message message, State current) {
+        return Ballot.round(current.promise) < 1 && member.config.slotOwner(message.slot).equals(message.senderID);
+    }
+
+    /**
+     * Sends ACCEPTED to every learner (including self). Learners count these per slot and proposal, so a value is
+     * learned as soon as a majority of acceptors has accepted it, without waiting for the proposer to collect the
+     * ACCEPTs and send LEARN. Notifications are not retried: the proposer's LEARN still follows for any learner that
+     * missed them.
      *
-     * @param message       the message being rejected
-     * @return              a REJECT type message
+     * @param acceptedValue     the value just accepted, with its slot and proposal
      */
-    private Message createRejectMessage(Message message) {
-        if (acceptedValue.length() > 0) {
-            log.info(member.config.memberID + ": Rejecting " + message.type + " from " + message.senderID
-                    + " for proposal " + message.proposalNumber
-                    + " due to already promising proposal " + highestPromise.get()
-                    + ". Including previously accepted value '" + acceptedValue + "'");
-            return Message.reject(message.proposalNumber, member.config.memberID, highestPromise.get(), acceptedValue.toString());
-        } else {
-            log.info(member.config.memberID + ": Rejecting " + message.type + " from " + message.senderID
-                    + " for proposal " + message.proposalNumber
-                    + " due to already promising proposal " + highestPromise.get()
-                    + ". No previously accepted value to include");
-            return Message.reject(message.proposalNumber, member.config.memberID, highestPromise.get());
+    private void notifyLearners(Message.SlotValue acceptedValue) {
+        if (member.currentlyCoorong) return;
+        Message notification = Message.accepted(member.config.memberID, acceptedValue);
+        notification.group = group;
+        for (MemberConfig.MemberInfo memberInfo : member.config.networkInfo.values()) {
+            if (memberInfo.isLearner) member.getNetwork().send(notification, memberInfo); // response is only an ACK
         }
     }
 
     /**
-     * Sends response to socket out
+     * Creates a reject type message containing the highest promised proposal number, so the proposer can choose a
+     * higher number for its next attempt.
      *
-     * @param response      the message to send
-     * @param socketOut     the socket to send the message to
+     * @param message           the message being rejected
+     * @param highestPromise    the promise the request was decided against
+     * @return                  a REJECT type message
      */
-    private void sendResponse(Message response, OutputStream socketOut) {
-        try {
-            socketOut.write(response.marshall().getBytes());
-            socketOut.flush();
-        } catch (IOException ex) {
-            log.info(member.config.memberID + ": Error writing response: " + ex.getMessage());
-            throw new RuntimeException(ex);
-        }
+    private Message createRejectMessage(Message message, long highestPromise) {
+        log.info(member.config.memberID + ": Rejecting " + message.type + " from " + message.senderID
+                + " for proposal " + Ballot.toString(message.proposalNumber)
+                + " due to already promising proposal " + Ballot.toString(highestPromise));
+        Message reject = Message.reject(message.proposalNumber, member.config.memberID, highestPromise);
+        reject.slot = message.slot;
+        return reject;
     }
 }
@@ -1,26 +1,156 @@
 package com.a1848962.paxos.roles;
 
 import com.a1848962.paxos.network.*;
+import com.a1848962.paxos.storage.LogEntry;
+import com.a1848962.paxos.storage.LogStore;
+import com.a1848962.paxos.storage.Snapshot;
+import com.a1848962.paxos.utils.Ballot;
+import com.a1848962.paxos.utils.Batch;
+import com.a1848962.paxos.utils.MemberConfig;
 import com.a1848962.paxos.utils.SimpleLogger;
 
-import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Learner class to record chosen values. Values are learned per log slot and may arrive in any order; the log exposed
+ * to callers is the contiguous run of chosen slots starting at slot 0, with batches unpacked into their values.
+ * <p>
+ * A value is learned either from the proposer's LEARN, or, with notify_learners set, from ACCEPTED notifications once
+ * a phase two quorum of acceptors has accepted it in the same proposal.
+ * <p>
+ * Learned values are appended to a LogStore (see the durability property) and restored from it on restart. A LEARN is
+ * only acknowledged once its value is stored.
+ * <p>
+ * Every snapshot_interval slots, the member's compaction thread folds the contiguous learned slots into a Snapshot,
+ * stores it, and then compacts this learner's log and the acceptor's state below the snapshot's slot, so the per-slot
+ * state kept in memory and on disk stays bounded however long the member runs. The snapshot holds the log's values
+ * themselves and so grows with the log, but each compaction only adds the values of the slots it folds in (see
+ * Snapshot.extend). Handlers never wait for compaction.
+ * <p>
+ * A learner that has missed decisions, because it was unreachable or the proposer gave up resending a LEARN, catches
+ * up from another member's learner: it sends a CATCHUP_REQ from its first unlearned slot and is sent the decisions
+ * from there, catchup_chunk characters per reply. If the peer has already compacted that slot, it first streams the
+ * values of its snapshot that the lagging learner does not have, i.e. from the number of values in its own log below
+ * that slot, and these are appended to its snapshot in place of the missed slots. Catching up therefore costs one
+ * round trip per chunk of the gap rather than per slot of history. A catch-up starts when the member returns from the Coorong, or
+ * when a gap in the log is still open CATCHUP_DELAY ms after a later slot was learned.
+ */
 public class Learner implements Member.LearnerRole {
     private final Member member; // reference to parent member object
+    private final int group; // Paxos group this learner belongs to
 
-    private final StringBuffer learnedValue;
+    private volatile Snapshot snapshot; // every slot below snapshot.slot, replaced by compaction
+    private final ConcurrentSkipListMap<Integer, String> learnedValues = new ConcurrentSkipListMap<>(); // slot -> value, from snapshot.slot
+    // ACCEPTED notifications for slots not yet learned: slot -> ballot -> acceptor IDs
+    private final Map<Integer, Map<Long, Set<String>>> acceptances = new HashMap<>(); // guarded by itself
+    // reads waiting for the log to reach a length in slots, and the current length - guarded by waiters
+    private final TreeMap<Integer, List<CompletableFuture<List<String>>>> waiters = new TreeMap<>();
+    private int contiguousSlots = 0;
+    private final LogStore store; // durable copy of learnedValues
+    private final Path snapshotFile; // durable copy of snapshot, null with durability none
+    private final AtomicBoolean compacting = new AtomicBoolean(); // a compaction is queued or running
+    private final AtomicBoolean catchingUp = new AtomicBoolean(); // a catch-up is scheduled or running
+    private final Random random = new Random();
+
+    private static final long CATCHUP_DELAY = 500; // time in ms a gap in the log may stay open before catching up
 
     private static final SimpleLogger log = new SimpleLogger("LEARNER");
 
-    public Learner(Member member) {
+    public Learner(Member member, int group) {
         this.member = member;
-        learnedValue = new StringBuffer();
+        this.group = group;
+        Path directory = Paths.get(member.config.storageDir, member.config.memberID);
+        this.store = LogStore.open(member.config.storage, member.config.durability, directory.resolve("learner-" + group));
+        boolean durable = !member.config.durability.trim().equalsIgnoreCase("none");
+        this.snapshotFile = durable ? directory.resolve("learner-" + group + ".snapshot") : null;
+
+        this.snapshot = durable ? Snapshot.read(snapshotFile) : Snapshot.EMPTY;
+        this.contiguousSlots = snapshot.slot;
+        for (LogEntry entry : store.recover()) {
+            if (entry.type == LogEntry.Type.CHOSEN && entry.slot >= snapshot.slot) learnedValues.put(entry.slot, entry.value);
+        }
+        if (snapshot.slot > 0 || !learnedValues.isEmpty()) {
+            completeWaiters();
+            log.info(member.config.memberID + ": Recovered a snapshot of " + snapshot.slot + " slots and "
+                    + learnedValues.size() + " later learned values from storage");
+        }
+    }
+
+    /**
+     * Waits for pending writes, then closes the store.
+     */
+    @Override
+    public void shutdown() {
+        store.close();
     }
 
+    /**
+     * The elected councillor is the first value in the log.
+     *
+     * @return  the first value in the log, or null if nothing has been learned
+     */
+    @Override
     public String getLearnedValue() {
-        if (learnedValue.length() > 0) return learnedValue.toString();
-        else return null; // return null if nothing has been learned, rather than an empty string
+        List<String> values = getLog();
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return  the values chosen in slots 0, 1, 2... up to the first slot not yet learned, excluding no-op slots. A
+     *          slot holding a batch contributes each of its values, in order
+     */
+    @Override
+    public List<String> getLog() {
+        while (true) {
+            Snapshot base = snapshot;
+            List<String> values = new ArrayList<>();
+            int expected = base.slot;
+            for (Map.Entry<Integer, String> entry : learnedValues.tailMap(base.slot).entrySet()) {
+                if (entry.getKey() != expected) break; // gap, later slots are not yet part of the log
+                if (!Message.NOOP.equals(entry.getValue())) values.addAll(Batch.decode(entry.getValue()));
+                expected++;
+            }
+            // otherwise compaction may have removed slots while reading, retry
+            if (snapshot == base) return base.followedBy(values);
+        }
+    }
+
+    /**
+     * @return  the latest snapshot: every slot below its slot has been compacted
+     */
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return  number of learned slots held individually, i.e. not yet folded into the snapshot
+     */
+    int uncompactedSlots() {
+        return learnedValues.size();
+    }
+
+    /**
+     * @param slots     number of slots, from slot 0, the log must contain
+     * @return          future completing with the log (as getLog) once every slot below `slots` has been learned
+     */
+    @Override
+    public CompletableFuture<List<String>> awaitLog(int slots) {
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        synchronized (waiters) {
+            if (contiguousSlots < slots) {
+                waiters.computeIfAbsent(slots, k -> new ArrayList<>()).add(result);
+                return result;
+            }
+        }
+        result.complete(getLog());
+        return result;
     }
 
     /**
@@ -43,10 +173,10 @@ public class Learner implements Member.LearnerRole {
      * Handles incoming learn requests.
      *
      * @param message       the incoming LEARN type message
-     * @param socketOut     the socket for response
+     * @param responder     sends the response to the proposer
      */
     @Override
-    public void handleLearn(Message message, OutputStream socketOut) {
+    public void handleLearn(Message message, Network.Responder responder) {
         // simulate node reliability (includes changes due to coorong/sheoak)
         if (member.simulateNodeReliability()) return;
 
@@ -57,46 +187,413 @@ public class Learner implements Member.LearnerRole {
             throw new RuntimeException(e);
         }
 
-        log.info(member.config.memberID + ": Handling LEARN request from " + message.senderID);
+        log.info(member.config.memberID + ": Handling LEARN request from " + message.senderID + " for slot " + message.slot);
 
         if (message.value != null) {
-            learnedValue.setLength(0); // overwrite any previously learned value
-            learnedValue.append(message.value);
-            log.info(member.config.memberID + ": Learned from " + message.senderID + " elected councillor: " + getLearnedValue());
-            sendAck(socketOut); // send ack to confirm value has been learned
+            learn(message.slot, message.value, message.senderID).whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    log.error(member.config.memberID + ": Not acknowledging LEARN as value could not be stored: " + ex.getMessage());
+                    return;
+                }
+                responder.respond(Message.ack(member.config.memberID)); // send ack to confirm value has been learned
+            });
         } else {
             log.info(member.config.memberID + ": Learner node instructed to learn null value by " + message.senderID);
-            sendNack(socketOut); // send nack
+            responder.respond(Message.nack(member.config.memberID)); // send nack
+        }
+    }
+
+    /**
+     * Handles an incoming ACCEPTED notification from an acceptor. Once a phase two quorum of acceptors report accepting the
+     * same proposal in a slot, its value is chosen and is learned.
+     *
+     * @param message       the incoming ACCEPTED type message
+     * @param responder     sends the response to the acceptor
+     */
+    @Override
+    public void handleAccepted(Message message, Network.Responder responder) {
+        // simulate node reliability (includes changes due to coorong/sheoak)
+        if (member.simulateNodeReliability()) return;
+
+        responder.respond(Message.ack(member.config.memberID));
+        if (message.accepted == null || message.accepted.isEmpty()) return;
+        Message.SlotValue accepted = message.accepted.get(0);
+        if (accepted.slot < snapshot.slot) return; // already learned and compacted
+
+        boolean chosen;
+        synchronized (acceptances) {
+            if (learnedValues.containsKey(accepted.slot)) return; // checked under the lock so no tally is left behind
+            Set<String> acceptors = acceptances.computeIfAbsent(accepted.slot, k -> new HashMap<>())
+                    .computeIfAbsent(accepted.proposalNumber, k -> new HashSet<>());
+            acceptors.add(message.senderID);
+            chosen = acceptors.size() >= member.config.phaseTwoQuorum;
+        }
+        if (chosen) learn(accepted.slot, accepted.value, "quorum of ACCEPTED");
+    }
+
+    /**
+     * Records the value chosen for a slot.
+     *
+     * @param slot      the log slot
+     * @param value     the chosen value
+     * @param source    where the decision came from, for logging
+     * @return          future completing once the value is stored
+     */
+    private CompletableFuture<Void> learn(int slot, String value, String source) {
+        CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+        if (slot < snapshot.slot) return written; // already learned and compacted
+        String previous = learnedValues.putIfAbsent(slot, value);
+        if (previous == null) {
+            written = store.append(LogEntry.chosen(slot, value));
+            log.info(member.config.memberID + ": Learned from " + source + " value " + value + " for slot " + slot);
+            synchronized (acceptances) {
+                acceptances.remove(slot); // no longer needed once the slot is learned
+            }
+            if (slot > completeWaiters()) scheduleCatchUp(); // earlier slots are missing, they may never arrive
+        } else if (!previous.equals(value)) {
+            // a chosen value can never change, this indicates a safety violation
+            log.error(member.config.memberID + ": Instructed to learn " + value + " for slot " + slot
+                    + " but already learned " + previous);
+        }
+        return written;
+    }
+
+    /**
+     * Advances the contiguous log length past newly learned slots and completes the reads waiting for it.
+     *
+     * @return  the contiguous log length in slots
+     */
+    private int completeWaiters() {
+        List<CompletableFuture<List<String>>> ready = new ArrayList<>();
+        int slots;
+        synchronized (waiters) {
+            while (learnedValues.containsKey(contiguousSlots)) contiguousSlots++;
+            slots = contiguousSlots;
+            SortedMap<Integer, List<CompletableFuture<List<String>>>> reached = waiters.headMap(contiguousSlots, true);
+            for (List<CompletableFuture<List<String>>> futures : reached.values()) ready.addAll(futures);
+            reached.clear();
         }
+        scheduleCompaction(slots);
+        if (ready.isEmpty()) return slots;
+        List<String> values = getLog();
+        for (CompletableFuture<List<String>> future : ready) future.complete(values);
+        return slots;
     }
 
     /**
-     * Creates an ACK type message and sends it to socketOut
+     * Queues a compaction on the member's compaction thread if snapshot_interval slots have been learned since the
+     * last snapshot, unless one is already queued.
      *
-     * @param socketOut     the socket to deliver the ACK to
+     * @param slots     current contiguous log length in slots
      */
-    private void sendAck(OutputStream socketOut) {
-        Message ack = Message.ack(this.member.config.memberID);
+    private void scheduleCompaction(int slots) {
+        int interval = member.config.snapshotInterval;
+        if (interval <= 0 || slots - snapshot.slot < interval || !compacting.compareAndSet(false, true)) return;
         try {
-            socketOut.write(ack.marshall().getBytes());
-            socketOut.flush();
-        } catch (IOException ex) {
-            log.info(member.config.memberID + ": Error sending ACK - " + ex.getMessage());
+            member.getCompactor().execute(this::compact);
+        } catch (RejectedExecutionException ex) {
+            compacting.set(false); // member is shutting down
         }
     }
 
     /**
-     * Creates an NACK type message and sends it to socketOut
+     * Folds every contiguous learned slot into a new snapshot, stores it, then compacts the learner's log and the
+     * acceptor's state of the same group below it. Runs on the compaction thread.
+     */
+    private void compact() {
+        try {
+            int slot;
+            synchronized (waiters) {
+                slot = contiguousSlots;
+            }
+            Snapshot previous = snapshot;
+            if (slot <= previous.slot) return;
+            Snapshot next = fold(previous, slot);
+            replaceSnapshot(next);
+            log.info(member.config.memberID + ": Compacted state below slot " + slot + " into a snapshot of " + next.values.size() + " values");
+        } catch (RuntimeException ex) {
+            log.error(member.config.memberID + ": Compaction failed: " + ex.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+        int slots;
+        synchronized (waiters) {
+            slots = contiguousSlots;
+        }
+        scheduleCompaction(slots); // slots learned while compacting may already call for another snapshot
+    }
+
+    /**
+     * @return  number of values a slot's chosen value adds to the log
+     */
+    private static int valueCount(String value) {
+        return Message.NOOP.equals(value) ? 0 : Batch.decode(value).size();
+    }
+
+    /**
+     * @param base  a snapshot
+     * @param slot  a slot after base.slot, with every slot from base.slot to it learned
+     * @return      `base` extended with the values learned in the slots from base.slot to `slot`
+     */
+    private Snapshot fold(Snapshot base, int slot) {
+        List<String> values = new ArrayList<>();
+        for (String value : learnedValues.subMap(base.slot, slot).values()) {
+            if (!Message.NOOP.equals(value)) values.addAll(Batch.decode(value));
+        }
+        return base.extend(slot, values);
+    }
+
+    /**
+     * Stores and publishes a new snapshot, then discards the learner's and the acceptor's state below its slot. Runs
+     * on the compaction thread.
      *
-     * @param socketOut     the socket to deliver the NACK to
+     * @param next  snapshot with a later slot than the current one
      */
-    private void sendNack(OutputStream socketOut) {
-        Message nack = Message.nack(this.member.config.memberID);
+    private void replaceSnapshot(Snapshot next) {
+        if (snapshotFile != null) next.write(snapshotFile, snapshot, member.config.durability.trim().equalsIgnoreCase("fsync"));
+
+        snapshot = next; // published before the slots are removed, see getLog
+        learnedValues.headMap(next.slot).clear();
+        synchronized (acceptances) {
+            acceptances.keySet().removeIf(acceptedSlot -> acceptedSlot < next.slot);
+        }
+        store.compact(next.slot);
+        Member.AcceptorRole acceptor = member.getAcceptor(group);
+        if (acceptor != null) acceptor.compact(next.slot);
+    }
+
+    /**
+     * Handles a CATCHUP_REQ from a lagging learner. If the requested slot has been compacted, replies with the chunk
+     * of the snapshot starting at the requested offset, otherwise with the learned values from the requested slot.
+     * Every learner's log holds the same values, so the offset (the number of values the lagging learner already
+     * has) skips exactly the values of the slots it has. Either way a reply holds at most catchup_chunk characters of
+     * values, but always at least one value.
+     *
+     * @param message       the incoming CATCHUP_REQ type message
+     * @param responder     sends the CATCHUP response to the lagging learner
+     */
+    @Override
+    public void handleCatchupRequest(Message message, Network.Responder responder) {
+        // simulate node reliability (includes changes due to coorong/sheoak)
+        if (member.simulateNodeReliability()) return;
+
+        // simulate node delays (includes changes due to coorong/sheoak)
         try {
-            socketOut.write(nack.marshall().getBytes());
-            socketOut.flush();
-        } catch (IOException ex) {
-            log.info(member.config.memberID + ": Error sending NACK - " + ex.getMessage());
+            Thread.sleep(member.simulateNodeDelay());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        int budget = member.config.catchupChunk;
+        while (true) {
+            Snapshot base = snapshot;
+            if (message.slot < base.slot) {
+                int offset = Math.max(0, Math.min(message.offset, base.values.size()));
+                int end = offset;
+                int size = 0;
+                while (end < base.values.size() && (end == offset || size + base.values.get(end).length() <= budget)) {
+                    size += base.values.get(end++).length();
+                }
+                responder.respond(Message.catchupSnapshot(member.config.memberID, base.slot, offset,
+                        base.values.size(), Batch.encode(base.values.subList(offset, end))));
+                return;
+            }
+
+            NavigableMap<Integer, String> tail = learnedValues.tailMap(message.slot, true);
+            List<Message.SlotValue> learned = new ArrayList<>();
+            boolean full = false;
+            int size = 0;
+            for (Map.Entry<Integer, String> entry : tail.entrySet()) {
+                if (!learned.isEmpty() && size + entry.getValue().length() > budget) {
+                    full = true;
+                    break;
+                }
+                learned.add(new Message.SlotValue(entry.getKey(), Ballot.NONE, member.config.memberID, entry.getValue()));
+                size += entry.getValue().length();
+            }
+            if (snapshot != base) continue; // compaction may have removed slots while reading, retry
+            int total = full ? tail.size() : learned.size();
+            log.info(member.config.memberID + ": Sending " + learned.size() + " learned values from slot " + message.slot
+                    + " to " + message.senderID + " to catch up");
+            responder.respond(Message.catchupTail(member.config.memberID, message.slot, learned, total));
+            return;
+        }
+    }
+
+    /**
+     * Catches up on missed decisions from another member's learner, unless a catch-up is already under way.
+     */
+    @Override
+    public void catchUp() {
+        if (catchingUp.compareAndSet(false, true)) startCatchUp();
+    }
+
+    /**
+     * @return  true if a slot beyond a gap in the log has been learned
+     */
+    private boolean lagging() {
+        synchronized (waiters) {
+            return !learnedValues.isEmpty() && learnedValues.lastKey() > contiguousSlots;
+        }
+    }
+
+    /**
+     * Queues a catch-up after CATCHUP_DELAY, unless one is already queued or running. If the gap in the log has been
+     * filled by then, nothing is sent.
+     */
+    private void scheduleCatchUp() {
+        if (!catchingUp.compareAndSet(false, true)) return;
+        try {
+            member.getScheduler().schedule(() -> {
+                if (lagging()) startCatchUp();
+                else catchingUp.set(false);
+            }, CATCHUP_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            catchingUp.set(false); // member is shutting down
+        }
+    }
+
+    /**
+     * Catches up from a random peer learner. Once finished, schedules another catch-up if the log still has a gap,
+     * which the next attempt may fill from a different peer. Called with catchingUp set.
+     */
+    private void startCatchUp() {
+        List<MemberConfig.MemberInfo> peers = new ArrayList<>();
+        for (MemberConfig.MemberInfo memberInfo : member.config.networkInfo.values()) {
+            if (memberInfo.isLearner && !memberInfo.id.equals(member.config.memberID)) peers.add(memberInfo);
+        }
+        if (peers.isEmpty() || member.currentlyCoorong || member.getNetwork() == null) {
+            catchingUp.set(false);
+            return;
+        }
+        CatchUp catchUp = new CatchUp(peers.get(random.nextInt(peers.size())));
+        catchUp.done.whenComplete((ignored, ex) -> {
+            catchingUp.set(false);
+            if (ex != null) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                log.warn(member.config.memberID + ": Catch-up from " + catchUp.peer.id + " failed: " + cause.getMessage());
+            } else {
+                log.info(member.config.memberID + ": Caught up from " + catchUp.peer.id + " with a snapshot of "
+                        + catchUp.snapshotSlots + " slots and " + catchUp.entries + " learned values in "
+                        + (System.currentTimeMillis() - catchUp.started) + " ms");
+            }
+            if (lagging()) scheduleCatchUp();
+        });
+        catchUp.request();
+    }
+
+    /**
+     * One catch-up from a peer learner: the part of its snapshot this learner is missing, streamed in chunks if the
+     * peer has compacted the missed slots, then the peer's learned values from there, each a CATCHUP_REQ and CATCHUP
+     * round trip.
+     */
+    private class CatchUp {
+        final MemberConfig.MemberInfo peer;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final long started = System.currentTimeMillis();
+        int from; // next slot to request
+        int held; // number of values in this learner's log below `from`
+        int snapshotSlot = -1; // slot of the snapshot being streamed
+        final List<String> received = new ArrayList<>(); // values of the streamed snapshot after the `held` first
+        int snapshotSlots = 0; // slots installed from the peer's snapshot
+        int entries = 0; // learned values received after the snapshot
+
+        CatchUp(MemberConfig.MemberInfo peer) {
+            this.peer = peer;
+            startFromLog();
+        }
+
+        /**
+         * Sets `from` to the first slot not learned, and `held` to the number of values below it.
+         */
+        void startFromLog() {
+            synchronized (waiters) {
+                from = contiguousSlots;
+            }
+            while (true) {
+                Snapshot base = snapshot;
+                if (base.slot >= from) { // compacted past it since
+                    from = base.slot;
+                    held = base.values.size();
+                    return;
+                }
+                int count = base.values.size();
+                for (String value : learnedValues.subMap(base.slot, from).values()) count += valueCount(value);
+                if (snapshot == base) { // otherwise compaction may have removed slots while reading, retry
+                    held = count;
+                    return;
+                }
+            }
+        }
+
+        void request() {
+            Message request = Message.catchupRequest(member.config.memberID, from, held + received.size());
+            request.group = group;
+            member.getNetwork().send(request, peer).whenComplete((response, ex) -> {
+                try {
+                    if (ex != null) throw new IllegalStateException(ex.getMessage(), ex);
+                    if (response == null || !response.type.equals("CATCHUP")) {
+                        throw new IllegalStateException("No CATCHUP response received");
+                    }
+                    if (response.value != null) receiveChunk(response);
+                    else receiveTail(response);
+                } catch (RuntimeException failure) {
+                    done.completeExceptionally(failure);
+                }
+            });
+        }
+
+        void receiveChunk(Message chunk) {
+            if (chunk.offset != held + received.size()) {
+                throw new IllegalStateException("Snapshot chunk starts at value " + chunk.offset + ", expected "
+                        + (held + received.size()));
+            }
+            // if the peer compacted again mid-stream, its snapshot only grew: the values received still lead it
+            snapshotSlot = chunk.slot;
+            received.addAll(Batch.decode(chunk.value));
+            if (held + received.size() < chunk.total) {
+                request();
+                return;
+            }
+
+            member.getCompactor().execute(() -> { // serialised with compaction, which also replaces the snapshot
+                try {
+                    Snapshot current = snapshot;
+                    if (snapshotSlot > current.slot) {
+                        Snapshot base = current.slot < from ? fold(current, from) : current; // holds the `held` values
+                        int known = base.values.size() - held; // of the received values, those base already has
+                        replaceSnapshot(base.extend(snapshotSlot, received.subList(known, received.size())));
+                        synchronized (waiters) {
+                            if (contiguousSlots < snapshotSlot) contiguousSlots = snapshotSlot;
+                        }
+                        completeWaiters();
+                        log.info(member.config.memberID + ": Installed snapshot of " + snapshotSlot + " slots from " + peer.id);
+                    }
+                    snapshotSlots += Math.max(0, snapshotSlot - from);
+                    received.clear();
+                    startFromLog();
+                    request(); // then the learned values after it
+                } catch (RuntimeException failure) {
+                    done.completeExceptionally(failure);
+                }
+            });
+        }
+
+        void receiveTail(Message tail) {
+            List<Message.SlotValue> learned = tail.accepted == null ? Collections.emptyList() : tail.accepted;
+            boolean contiguous = true;
+            for (Message.SlotValue entry : learned) {
+                learn(entry.slot, entry.value, "catch-up from " + peer.id);
+                if (contiguous && entry.slot == from) {
+                    held += valueCount(entry.value);
+                    from++;
+                } else {
+                    contiguous = false; // the peer is missing a slot too, leave it to the next catch-up
+                }
+            }
+            entries += learned.size();
+            if (contiguous && !learned.isEmpty() && learned.size() < tail.total) request(); // more than fitted in one reply
+            else done.complete(null);
         }
     }
 }
@@ -3,28 +3,45 @@ package com.a1848962.paxos.roles;
 import com.a1848962.paxos.network.*;
 import com.a1848962.paxos.utils.*;
 
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a member in the Paxos network. Can assume any combination of proposer, acceptor, and learner roles.
+ * <p>
+ * A member hosts one or more independent Paxos groups, each with its own roles and log, identified by the group ID
+ * carried in every request. All groups share the member's network listener, connection pool and executors, so a
+ * keyspace can be partitioned across groups without running a process per group. Group 0 always exists; config.groups
+ * groups are started with the member and more can be added with addGroup.
  */
 public class Member implements Network.PaxosHandler {
     public interface LearnerRole {
         String getLearnedValue();
-        void handleLearn(Message message, OutputStream socketOut);
+        List<String> getLog();
+        void handleLearn(Message message, Network.Responder responder);
+        void handleAccepted(Message message, Network.Responder responder);
+        void handleCatchupRequest(Message message, Network.Responder responder);
+        void catchUp();
+        void shutdown();
+        CompletableFuture<List<String>> awaitLog(int slots);
         void silence();
         void unsilence();
     }
 
     public interface AcceptorRole {
-        void handlePrepareRequest(Message message, OutputStream socketOut);
-        void handleAcceptRequest(Message message, OutputStream socketOut);
+        void handlePrepareRequest(Message message, Network.Responder responder);
+        void handleAcceptRequest(Message message, Network.Responder responder);
         void silence();
         void unsilence();
+        void compact(int slot);
+        void shutdown();
     }
 
     public interface ProposerRole {
@@ -33,6 +50,10 @@ public class Member implements Network.PaxosHandler {
         void handleRejectResponse(Message response);
         void propose();
         void propose(String target);
+        CompletableFuture<Integer> submit(String value);
+        CompletableFuture<List<String>> leasedRead();
+        void handleReadRequest(Message message, Network.Responder responder);
+        void handleChosen(int slot, String value);
         void silence();
         void unsilence();
         void shutdown();
@@ -54,29 +75,51 @@ public class Member implements Network.PaxosHandler {
     protected long coorongStartTime = 0;
     protected long sheoakStartTime = 0;
 
+    /**
+     * The roles this member runs in one Paxos group.
+     */
+    private static class Group {
+        final ProposerRole proposer;
+        final AcceptorRole acceptor;
+        final LearnerRole learner;
+
+        Group(ProposerRole proposer, AcceptorRole acceptor, LearnerRole learner) {
+            this.proposer = proposer;
+            this.acceptor = acceptor;
+            this.learner = learner;
+        }
+    }
+
     // role variables
-    private ProposerRole proposer;
-    private AcceptorRole acceptor;
-    private LearnerRole learner;
+    private final ConcurrentHashMap<Integer, Group> groups = new ConcurrentHashMap<>(); // group ID -> roles
 
     // utility variables
     private Network network;
     protected final Random random = new Random();
-    private final ScheduledExecutorService simulationScheduler = Executors.newSingleThreadScheduledExecutor();
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+    private final ScheduledExecutorService simulationScheduler;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService proposerScheduler; // timeouts and batching for the proposers of all groups
+    private final ExecutorService compactor; // snapshots and log compaction for all groups, off the handler threads
     private static final SimpleLogger log = new SimpleLogger("MEMBER");
 
     public Member(MemberConfig config) {
         this.config = config;
+        this.simulationScheduler = ThreadPools.scheduled(config.memberID + "-simulation", 1);
+        this.scheduler = ThreadPools.scheduled(config.memberID + "-scheduler", 3);
+        this.proposerScheduler = ThreadPools.scheduled(config.memberID + "-proposer",
+                Math.max(1, Math.min(config.groups, Runtime.getRuntime().availableProcessors())));
+        this.compactor = ThreadPools.single(config.memberID + "-compaction");
     }
 
     /**
      * Mutes log output for Member, network, and all role objects
      */
     public void silence() {
-        if (this.proposer != null) proposer.silence();
-        if (this.acceptor != null) acceptor.silence();
-        if (this.learner != null) learner.silence();
+        for (Group group : groups.values()) {
+            if (group.proposer != null) group.proposer.silence();
+            if (group.acceptor != null) group.acceptor.silence();
+            if (group.learner != null) group.learner.silence();
+        }
         if (this.network != null) network.silence();
         log.silence();
     }
@@ -85,9 +128,11 @@ public class Member implements Network.PaxosHandler {
      * Unmutes log output for Member, network, and all role objects
      */
     public void unsilence() {
-        if (this.proposer != null) proposer.unsilence();
-        if (this.acceptor != null) acceptor.unsilence();
-        if (this.learner != null) learner.unsilence();
+        for (Group group : groups.values()) {
+            if (group.proposer != null) group.proposer.unsilence();
+            if (group.acceptor != null) group.acceptor.unsilence();
+            if (group.learner != null) group.learner.unsilence();
+        }
         if (this.network != null) network.unsilence();
         log.unsilence();
     }
@@ -110,10 +155,11 @@ public class Member implements Network.PaxosHandler {
      */
     public void start(boolean proposerAcceptsStdin, boolean simulateSheoakCoorong) {
         log.info(config.memberID + ": Starting Member");
-        this.proposer = config.isProposer ? new Proposer(this, proposerAcceptsStdin) : null;
-        this.acceptor = config.isAcceptor ? new Acceptor(this) : null;
-        this.learner  = config.isLearner  ? new Learner(this)  : null;
-        this.network = new Network(config.port, this);
+        this.network = new Network(config.memberID, config.port, config.workerThreads, config.workerQueue, this);
+        addGroup(0, proposerAcceptsStdin); // only the first group takes commands from stdin
+        for (int group = 1; group < config.groups; group++) {
+            addGroup(group, false);
+        }
         this.network.start();
         if (simulateSheoakCoorong) startSheoakCoorongSimulation();
     }
@@ -131,21 +177,112 @@ public class Member implements Network.PaxosHandler {
         simulationScheduler.shutdownNow();
     }
 
+    /**
+     * Starts a Paxos group on this member, with the roles given by config. Every member of the cluster must add the
+     * group for it to make progress. Requests for a group this member does not host are answered with NACK.
+     *
+     * @param groupID   ID of the group, carried in its messages
+     */
+    public void addGroup(int groupID) {
+        addGroup(groupID, false);
+    }
+
+    private void addGroup(int groupID, boolean proposerAcceptsStdin) {
+        groups.computeIfAbsent(groupID, id -> new Group(
+                config.isProposer ? new Proposer(this, id, proposerScheduler, proposerAcceptsStdin) : null,
+                config.isAcceptor ? new Acceptor(this, id) : null,
+                config.isLearner  ? new Learner(this, id)  : null));
+    }
+
     public LearnerRole getLearner() {
-        return learner;
+        return getLearner(0);
     }
 
     public AcceptorRole getAcceptor() {
-        return acceptor;
+        return getAcceptor(0);
     }
 
     public ProposerRole getProposer() {
-        return proposer;
+        return getProposer(0);
+    }
+
+    ExecutorService getCompactor() {
+        return compactor;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public LearnerRole getLearner(int groupID) {
+        Group group = groups.get(groupID);
+        return group == null ? null : group.learner;
+    }
+
+    public AcceptorRole getAcceptor(int groupID) {
+        Group group = groups.get(groupID);
+        return group == null ? null : group.acceptor;
+    }
+
+    public ProposerRole getProposer(int groupID) {
+        Group group = groups.get(groupID);
+        return group == null ? null : group.proposer;
+    }
+
+    Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * Linearizable read of the log. If this member's proposer holds a leader lease, the read is answered locally
+     * without any messages. Otherwise it is forwarded as a READ_REQ to the other proposers, and the first READ, which
+     * only the current leaseholder sends, is the answer.
+     *
+     * @return  future completing with the log (as LearnerRole.getLog), or with null if no proposer holds a lease
+     */
+    public CompletableFuture<List<String>> read() {
+        return read(0);
+    }
+
+    /**
+     * Linearizable read of the log of one Paxos group, see read().
+     *
+     * @param groupID   the group to read
+     * @return          future completing with the group's log, or with null if no proposer holds a lease
+     */
+    public CompletableFuture<List<String>> read(int groupID) {
+        ProposerRole proposer = getProposer(groupID);
+        CompletableFuture<List<String>> local = proposer == null ? null : proposer.leasedRead();
+        if (local != null) return local;
+
+        List<MemberConfig.MemberInfo> proposers = new ArrayList<>();
+        for (MemberConfig.MemberInfo memberInfo : config.networkInfo.values()) {
+            if (memberInfo.isProposer && !memberInfo.id.equals(config.memberID)) proposers.add(memberInfo);
+        }
+        Message readRequest = Message.readRequest(config.memberID);
+        readRequest.group = groupID;
+        return network.broadcast(readRequest, proposers, 1, r -> r.type.equals("READ"))
+                .thenApply(replies -> Batch.decode(replies.get(0).value))
+                .exceptionally(ex -> {
+                    log.info(config.memberID + ": No proposer holds a lease, read failed");
+                    return null;
+                });
     }
 
     public void shutdown() {
         if (network != null) network.shutdown();
-        if (proposer != null) proposer.shutdown();
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(5, TimeUnit.SECONDS); // a running compaction still needs the stores
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Group group : groups.values()) {
+            if (group.proposer != null) group.proposer.shutdown();
+            if (group.acceptor != null) group.acceptor.shutdown();
+            if (group.learner != null) group.learner.shutdown();
+        }
+        proposerScheduler.shutdownNow();
         simulationScheduler.shutdownNow();
         scheduler.shutdownNow(); // shutdown scheduler
         log.info(config.memberID + ": Shutdown complete");
@@ -155,12 +292,21 @@ public class Member implements Network.PaxosHandler {
      * Implements PaxosHandler interface. All messages to network object's ServerSocket are unmarshalled and passed
      * to this function.
      * @param message       the message object that has been received
-     * @param socketOut     the socket out for response
+     * @param responder     sends the response to this message
      */
     @Override
-    public void handleIncomingMessage(Message message, OutputStream socketOut) {
+    public void handleIncomingMessage(Message message, Network.Responder responder) {
+        Group group = groups.get(message.group);
+        if (group == null) {
+            log.warn(config.memberID + ": Incoming " + message.type + " for unknown group " + message.group);
+            responder.respond(Message.nack(config.memberID));
+            return;
+        }
+        ProposerRole proposer = group.proposer;
+        AcceptorRole acceptor = group.acceptor;
+        LearnerRole learner = group.learner;
         switch (message.type) {
-            // most of the time PROMISE/ACCEPT/REJECT messages will be sent as a response to an open socket, and so they
+            // most of the time PROMISE/ACCEPT/REJECT messages will be sent as a response to a request, and so they
             // will not reach this handler. They are included here in case the sender needs to resend the message.
             case "PROMISE": // for proposer
                 // promise message can only be in response to a prepare request
@@ -175,13 +321,25 @@ public class Member implements Network.PaxosHandler {
                 if (proposer != null) proposer.handleRejectResponse(message);
                 break;
             case "PREPARE_REQ": // for acceptor
-                if (acceptor != null) acceptor.handlePrepareRequest(message, socketOut);
+                if (acceptor != null) acceptor.handlePrepareRequest(message, responder);
                 break;
             case "ACCEPT_REQ": // for acceptor
-                if (acceptor != null) acceptor.handleAcceptRequest(message, socketOut);
+                if (acceptor != null) acceptor.handleAcceptRequest(message, responder);
+                break;
+            case "LEARN": // for learner, and for the proposer to follow the log under mencius
+                if (learner != null) learner.handleLearn(message, responder);
+                if (proposer != null) proposer.handleChosen(message.slot, message.value);
+                break;
+            case "ACCEPTED": // for learner
+                if (learner != null) learner.handleAccepted(message, responder);
                 break;
-            case "LEARN": // for learner
-                if (learner != null) learner.handleLearn(message, socketOut);
+            case "CATCHUP_REQ": // for learner, from a lagging learner of another member
+                if (learner != null) learner.handleCatchupRequest(message, responder);
+                else responder.respond(Message.nack(config.memberID));
+                break;
+            case "READ_REQ": // for proposer, answered only while it holds a lease
+                if (proposer != null) proposer.handleReadRequest(message, responder);
+                else responder.respond(Message.nack(config.memberID));
                 break;
             default:
                 log.warn(config.memberID + ": Incoming incompatible message type: " + message.type);
@@ -190,6 +348,7 @@ public class Member implements Network.PaxosHandler {
 
     /**
      * Forces the member to go camping in the Coorong. While in the Coorong, no messages will be received by the member.
+     * On returning, each of its learners catches up on the decisions it missed.
      *
      * @param value     the value currentlyCoorong should be set to
      * @param time      how long the member should stay camping in the Coorong (only accessed when `value` is true)
@@ -207,6 +366,11 @@ public class Member implements Network.PaxosHandler {
             currentlyCoorong = false;
             coorongStartTime = 0;
             log.info(config.memberID + " has returned from the Coorong");
+
+            // decisions made while away were never learned, fetch them from another member's learner
+            for (Group group : groups.values()) {
+                if (group.learner != null) group.learner.catchUp();
+            }
         }
     }
 
@@ -257,7 +421,7 @@ public class Member implements Network.PaxosHandler {
     protected long simulateNodeDelay() {
         long delay; // calculate delay based on current state
         if (currentlySheoak) delay = 0; // instant response
-        else delay = (long) (random.nextDouble() * config.maxDelay); // normal operation: random delay up to maxDelay
+        else delay = (long) (ThreadLocalRandom.current().nextDouble() * config.maxDelay); // normal operation: random delay up to maxDelay
 
         if (delay < 0) delay = 0;
 
@@ -278,7 +442,7 @@ public class Member implements Network.PaxosHandler {
             reliability = 1.0;
         }
         double lossChance = 1.0 - reliability;
-        return (random.nextDouble() < lossChance);
+        return (ThreadLocalRandom.current().nextDouble() < lossChance); // per thread, handler threads never contend
     }
 
     /**
@@ -6,48 +6,129 @@ import com.a1848962.paxos.utils.*;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * Proposer class to make propositions and orchestrate Paxos protocol. Implements proposer role.
+ * <p>
+ * Runs Multi-Paxos over a slot-indexed log. Phase one is run once for every slot from the first slot this proposer
+ * has not seen chosen; once it succeeds the proposer is the leader for that proposal number, and each further value
+ * needs only phase two (ACCEPT_REQ, then LEARN). The leader keeps skipping phase one until a round fails, e.g.
+ * because another proposer has prepared a higher proposal. A lost round (a REJECT showing a promise at least as high,
+ * or a timeout) is retried after a delay chosen by the ContentionManager, so competing proposers stop pre-empting
+ * each other.
+ * <p>
+ * Submitted values are batched: up to batchSize pending values are packed into the value of one slot (see Batch), and
+ * a submission waits up to batchDelay ms for others to join it. Phase two rounds are pipelined: up to pipelineWindow
+ * slots are in flight at once, each tracked by its own Proposal, so throughput is bounded by window / round trip time
+ * rather than one decision per round trip.
+ * <p>
+ * With mencius set, there is no single leader while all goes well: slots are owned round-robin by the proposers (see
+ * MemberConfig.slotOwner), and each proposer proposes in its own slots straight away with phase two, using its round 0
+ * ballot. When a LEARN shows a later slot chosen, the proposer fills its own unused slots below it with a no-op, so
+ * idle proposers do not leave gaps. A slot still empty after RETRY_DELAY is taken over with phase one, which also
+ * ends the rotation: from the first lost round on, proposers compete for leadership as above. The rotation is not
+ * resumed, even once this proposer leads again, because acceptors promised a round 1 ballot refuse every round 0
+ * ballot from then on (see Acceptor). An own batch placed in a slot that a LEARN shows was given another value is
+ * proposed again in a new slot.
+ * <p>
+ * Each Paxos group hosted by the member has its own Proposer, which only sends and handles messages for its group.
+ * The proposers of all groups share the member's scheduler.
  */
 public class Proposer implements Member.ProposerRole {
     private final Member member; // reference to parent member object
-
-    // proposal variables
-    private final AtomicInteger proposalCounter = new AtomicInteger(0);
-    private Proposal activeProposal = null;
+    private final int group; // Paxos group this proposer runs
+
+    // proposal variables - all guarded by this, except proposalCounter
+    private final AtomicInteger proposalCounter = new AtomicInteger(0); // highest round seen, see Ballot
+    private final int memberIndex; // low half of this proposer's ballots
+    private Proposal preparing = null; // phase one in progress
+    private final TreeMap<Integer, Proposal> inFlight = new TreeMap<>(); // phase two in progress, keyed by slot
+    private int peakInFlight = 0; // most phase two rounds in flight at once
+    private boolean leader = false; // phase one has succeeded for proposal number `ballot`
+    private long ballot = Ballot.NONE;
+    private int firstUnchosen = 0; // lowest slot this proposer has not seen chosen
+    private final TreeSet<Integer> chosenAhead = new TreeSet<>(); // slots seen chosen above firstUnchosen
+    private int nextSlot = 0; // slot the next new batch is proposed in
+    private final Deque<Proposal> recovered = new ArrayDeque<>(); // slots found in phase one, re-proposed first
+    private final Queue<Submission> pending = new ArrayDeque<>(); // submitted values not yet batched, in order
+    private final TreeMap<Integer, PendingBatch> batches = new TreeMap<>(); // own batches by slot last proposed in
+    private final Deque<PendingBatch> unplaced = new ArrayDeque<>(); // own batches that lost their slot
+    private final String batchTag; // start of the id of every batch this proposer packs, unique to this run
+    private long batchCount = 0; // batches packed so far, ends the id of the next
+    private boolean flushScheduled = false; // a delayed proposeNext is scheduled to collect a batch
+    private long leaseExpiry; // System.nanoTime() at which the leader lease runs out
+    private int recoveryEnd = 0; // slots below this may hold values chosen under an earlier leader
+    private boolean backingOff = false; // a round was lost, the next starts once the backoff has passed
+    private boolean revoked = false; // mencius: a round was lost, so slot ownership no longer applies, for good
+    private boolean takeoverScheduled = false; // mencius: a check for a slot left empty by its owner is scheduled
+    private final ContentionManager contention;
+    private final LatencyTracker latencies = new LatencyTracker(); // acceptor round trip times, for thrifty rounds
     private String preferredLeader;
-    private final int majority;
 
     // network variables
     private static final int RETRY_DELAY = 2000; // time to wait before retrying a proposal
     private static final int MAX_RETRIES = 3; // how many times to retry sending a LEARN message
 
     // utility variables
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler; // shared by the proposers of all groups, owned by member
+    private final ExecutorService executor; // single thread reading commands from stdin
     private static final SimpleLogger log = new SimpleLogger("PROPOSER");
 
-    public Proposer(Member member, boolean listenStdin) {
+    /**
+     * A submitted value and the future completed with the slot it is chosen in.
+     */
+    private static class Submission {
+        final String value;
+        final CompletableFuture<Integer> chosen = new CompletableFuture<>();
+
+        Submission(String value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Submissions packed into a single value, which is proposed (and re-proposed if it loses its slot) until chosen.
+     */
+    private static class PendingBatch {
+        final List<Submission> submissions;
+        final String id; // see Batch.id
+        final String value;
+
+        PendingBatch(List<Submission> submissions, String id, String value) {
+            this.submissions = submissions;
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    public Proposer(Member member, int group, ScheduledExecutorService scheduler, boolean listenStdin) {
         this.member = member;
+        this.group = group;
         this.preferredLeader = member.config.memberID; // default preferred leader is self
-        this.majority = (member.config.networkInfo.size() / 2) + 1; // calculate majority required for consensus
+        this.memberIndex = Ballot.memberIndex(member.config.memberID);
+        this.leaseExpiry = System.nanoTime(); // no lease yet
+        this.batchTag = member.config.memberID + "/" + group + "/" + Long.toString(System.currentTimeMillis(), 36) + "/";
+        this.contention = ContentionManager.forName(member.config.contention, member.config, proposerRank());
+        this.scheduler = scheduler;
+        this.executor = ThreadPools.single(member.config.memberID + "-stdin");
         if (listenStdin) listenStdin();
     }
 
     /**
-     * Starts Paxos protocol by broadcasting a prepare request. Unless previously overwritten, member will attempt to
+     * Starts Paxos protocol to append a value to the log. Unless previously overwritten, member will attempt to
      * propose itself as councillor.
      */
     @Override
     public void propose() {
-        sendPrepareRequest();
+        submit(preferredLeader);
     }
 
     /**
-     * Starts Paxos protocol by broadcasting a prepare request. Proposer will attempt to propose specified target as
+     * Starts Paxos protocol to append a value to the log. Proposer will attempt to propose specified target as
      * councillor.
      *
      * @param target    The member to propose for councillor.
@@ -55,7 +136,37 @@ public class Proposer implements Member.ProposerRole {
     @Override
     public void propose(String target) {
         this.preferredLeader = target;
-        sendPrepareRequest();
+        submit(target);
+    }
+
+    /**
+     * Queues a value to be appended to the log. While this proposer remains leader, values submitted to it are chosen
+     * in submission order. If the batch is not yet full, the value waits up to batchDelay ms for more values.
+     *
+     * @param value     the value to propose
+     * @return          future completing with the slot the value (or the batch containing it) was chosen in
+     */
+    @Override
+    public CompletableFuture<Integer> submit(String value) {
+        Submission submission = new Submission(value);
+        synchronized (this) {
+            pending.add(submission);
+            if (pending.size() >= member.config.batchSize || member.config.batchDelay <= 0) {
+                proposeNext();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, member.config.batchDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+        return submission.chosen;
+    }
+
+    /**
+     * Proposes the values collected while waiting for a batch to fill.
+     */
+    private synchronized void flush() {
+        flushScheduled = false;
+        proposeNext();
     }
 
     /**
@@ -75,56 +186,401 @@ public class Proposer implements Member.ProposerRole {
     }
 
     /**
-     * Broadcasts a PREPARE_REQ message to all nodes (including self). Response is handled by handlePrepareReqResponse.
+     * Fills the pipeline. Without leadership, runs phase one. As leader, starts phase two rounds until pipelineWindow
+     * slots are in flight: first for values recovered in phase one, then for own batches that lost their slot, then
+     * for new batches of the oldest pending values.
      */
-    private void sendPrepareRequest() {
-        // create a new PREPARE_REQ message and a Proposal object to store proposal data.
-        int currentProposalNum = proposalCounter.incrementAndGet();
-        Message prepare = Message.prepareRequest(currentProposalNum, member.config.memberID);
-        activeProposal = new Proposal(currentProposalNum);
+    private synchronized void proposeNext() {
+        if (backingOff) return; // proposeNext is called again once the backoff has passed
+        if (!leader && !rotating()) {
+            if (preparing == null && (!pending.isEmpty() || !unplaced.isEmpty() || !batches.isEmpty())) sendPrepareRequest();
+            return;
+        }
+
+        // a failed send may lose leadership (or end the rotation)
+        while ((leader || rotating()) && inFlight.size() < member.config.pipelineWindow) {
+            Proposal proposal = recovered.poll();
+            if (proposal == null) {
+                PendingBatch batch = unplaced.poll();
+                if (batch == null) batch = nextBatch();
+                if (batch == null) return; // nothing to propose
+                proposal = rotating() ? new Proposal(Ballot.of(0, memberIndex), nextOwnSlot()) : new Proposal(ballot, nextSlot++);
+                proposal.value = batch.value;
+                batches.put(proposal.getSlot(), batch);
+            }
+            sendAcceptRequest(proposal);
+        }
+    }
+
+    /**
+     * Packs up to batchSize pending submissions into one value, tagged with an id no other batch has, so the batch is
+     * recognised in a slot only if this proposer's own batch was chosen there.
+     *
+     * @return  the batch, or null if nothing is pending
+     */
+    private PendingBatch nextBatch() {
+        if (pending.isEmpty()) return null;
+        List<Submission> submissions = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        while (!pending.isEmpty() && submissions.size() < member.config.batchSize) {
+            Submission next = pending.poll();
+            submissions.add(next);
+            values.add(next.value);
+        }
+        if (submissions.size() > 1) log.info(member.config.memberID + ": Proposing batch of " + submissions.size() + " values");
+        String id = batchTag + batchCount++;
+        return new PendingBatch(submissions, id, Batch.encode(id, values));
+    }
+
+    /**
+     * @return  true if slots are proposed by their owners (mencius) rather than by a single leader
+     */
+    private boolean rotating() {
+        return member.config.mencius && !revoked;
+    }
+
+    /**
+     * @return  the first slot owned by this proposer from nextSlot onwards, advancing nextSlot past it
+     */
+    private int nextOwnSlot() {
+        int slot = nextSlot;
+        while (!member.config.slotOwner(slot).equals(member.config.memberID)) slot++;
+        nextSlot = slot + 1;
+        return slot;
+    }
 
-        // schedule proposal to timeout and retry after RETRY_DELAY
+    /**
+     * Handles a LEARN for a slot, from any proposer. Only used with mencius: the slot is recorded as chosen, and an own
+     * batch placed in it is settled, i.e. its submitters are notified if the value is the batch, or else it is
+     * proposed again in a new slot. While rotating, every unused slot this proposer owns below it is filled with a
+     * no-op, and a takeover is scheduled if a slot below it is still not chosen.
+     *
+     * @param slot  the slot a value was chosen in
+     * @param value the value chosen
+     */
+    @Override
+    public synchronized void handleChosen(int slot, String value) {
+        if (!member.config.mencius) return;
+        markChosen(slot);
+        PendingBatch batch = batches.remove(slot); // still there if another proposer got the slot chosen
+        if (batch != null) {
+            Proposal placed = inFlight.remove(slot);
+            if (placed != null) {
+                placed.markCompleted(); // decided, ignore further responses
+                cancelTimeout(placed);
+            }
+            if (batch.id.equals(Batch.id(value))) { // recovered and chosen by the proposer that took the slot over
+                for (Submission submission : batch.submissions) {
+                    submission.chosen.complete(slot);
+                }
+            } else {
+                log.info(member.config.memberID + ": Slot " + slot + " was chosen with another value, proposing its batch again");
+                unplaced.addFirst(batch);
+            }
+            proposeNext();
+        }
+        if (!rotating()) return;
+
+        while (nextSlot < slot) {
+            int skipped = nextOwnSlot();
+            if (skipped >= slot) {
+                nextSlot = skipped; // not used yet, keep it for the next value
+                break;
+            }
+            Proposal skip = new Proposal(Ballot.of(0, memberIndex), skipped);
+            skip.value = Message.NOOP;
+            sendAcceptRequest(skip);
+        }
+        scheduleTakeover();
+    }
+
+    /**
+     * Schedules a check of firstUnchosen after RETRY_DELAY, if a later slot has been chosen (so firstUnchosen is a
+     * gap) and no check is scheduled yet.
+     */
+    private void scheduleTakeover() {
+        if (chosenAhead.isEmpty() || takeoverScheduled) return;
+        takeoverScheduled = true;
+        int gap = firstUnchosen;
+        scheduler.schedule(() -> takeOverIfEmpty(gap), RETRY_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs phase one from a slot whose owner has not filled it within RETRY_DELAY, e.g. because the owner failed.
+     * Phase one recovers any value accepted in the slot, or fills it with a no-op. Ends the rotation, so the rounds
+     * this proposer has in flight with its round 0 ballot are abandoned and found again by phase one.
+     *
+     * @param gap   the slot that was not chosen when the check was scheduled
+     */
+    private synchronized void takeOverIfEmpty(int gap) {
+        takeoverScheduled = false;
+        if (!rotating()) return;
+        if (firstUnchosen > gap) { // filled in time, keep watching any gap above it
+            scheduleTakeover();
+            return;
+        }
+        log.info(member.config.memberID + ": Slot " + gap + " owned by " + member.config.slotOwner(gap)
+                + " is still empty, taking over with phase one");
+        for (Proposal abandoned : inFlight.values()) cancelTimeout(abandoned);
+        inFlight.clear();
+        revoked = true;
+        if (preparing == null) sendPrepareRequest();
+    }
+
+    /**
+     * Records every slot below `slot` as chosen, after an acceptor reported compacting them. Own batches proposed in
+     * those slots may or may not have been chosen, so they are proposed again.
+     *
+     * @param slot  every slot below this is chosen
+     */
+    private synchronized void skipCompacted(int slot) {
+        log.info(member.config.memberID + ": Skipping to slot " + slot + ", earlier slots were chosen and compacted");
+        if (slot > firstUnchosen) {
+            firstUnchosen = slot;
+            chosenAhead.headSet(slot).clear();
+            while (chosenAhead.remove(firstUnchosen)) firstUnchosen++;
+        }
+        SortedMap<Integer, PendingBatch> skipped = batches.headMap(slot);
+        unplaced.addAll(skipped.values());
+        skipped.clear();
+    }
+
+    /**
+     * Records a slot as chosen, advancing firstUnchosen past every contiguous chosen slot.
+     */
+    private void markChosen(int slot) {
+        if (slot < firstUnchosen) return;
+        chosenAhead.add(slot);
+        while (chosenAhead.remove(firstUnchosen)) firstUnchosen++;
+    }
+
+    /**
+     * Schedules a proposal to time out after RETRY_DELAY. If it is still in progress by then, the round is lost (see
+     * loseRound). Rounds normally end well before this: the timeout is cancelled as soon as the round succeeds or is
+     * known to be lost, and only fires if replies stop arriving altogether.
+     */
+    private void scheduleTimeout(Proposal proposal) {
+        proposal.timeout = scheduler.schedule(() -> loseRound(proposal, "timed out"), RETRY_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancelTimeout(Proposal proposal) {
+        if (proposal.timeout != null) proposal.timeout.cancel(false);
+    }
+
+    /**
+     * Gives up a round that can no longer succeed, if it is still in progress. This happens as soon as a REJECT shows
+     * a promise at least as high as the round's number, or once so many acceptors have rejected or failed that a
+     * quorum is impossible, rather than when the round times out. Leadership is given up with it and every round in
+     * flight is abandoned and its timeout cancelled. Once the contention manager's backoff has passed, proposing starts
+     * again from phase one, with a proposal number above any seen in a REJECT. Abandoned values are found again by
+     * phase one if any acceptor accepted them.
+     *
+     * @param proposal  the lost round
+     * @param reason    why the round was lost, for logging
+     */
+    private synchronized void loseRound(Proposal proposal, String reason) {
+        if (proposal.isCompleted()) return;
+        if (proposal != preparing && inFlight.get(proposal.getSlot()) != proposal) return; // already abandoned
+        proposal.markPhaseOneCompleted(); // ignore further responses to a lost phase one
+
+        long delay = contention.backoff();
+        log.info(member.config.memberID + ": Proposal " + Ballot.toString(proposal.getProposalNumber()) + " for slot "
+                + proposal.getSlot() + " " + reason + ". Starting new proposal in " + delay + "ms");
+        if (preparing != null) cancelTimeout(preparing);
+        for (Proposal abandoned : inFlight.values()) cancelTimeout(abandoned);
+        preparing = null;
+        inFlight.clear();
+        recovered.clear();
+        leader = false;
+        revoked = true; // a competing proposer ran phase one, so acceptors now refuse this proposer's round 0 ballots
+        leaseExpiry = System.nanoTime();
+        backingOff = true;
         scheduler.schedule(() -> {
-            if (!activeProposal.isCompleted()) {
-                log.info(member.config.memberID + ": Proposal " + activeProposal.getProposalNumber() + " timed out. Starting new proposal");
-                sendPrepareRequest();
+            synchronized (this) {
+                backingOff = false;
+                proposeNext();
             }
-        }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return  number of proposers with a lower member ID than this member, which have priority when proposals tie
+     */
+    private int proposerRank() {
+        int self = Integer.parseInt(member.config.memberID.substring(1));
+        int rank = 0;
+        for (MemberConfig.MemberInfo memberInfo : member.config.networkInfo.values()) {
+            if (memberInfo.isProposer && Integer.parseInt(memberInfo.id.substring(1)) < self) rank++;
+        }
+        return rank;
+    }
+
+    /**
+     * Extends the leader lease after a round completes. Each acceptor in the phase two quorum granted a lease of
+     * leaseDuration from when it received the ACCEPT_REQ, which is after proposal.sentAt by this proposer's clock, so
+     * the lease is held until sentAt + leaseDuration, less leaseDrift in case this clock runs slower than theirs.
+     * <p>
+     * No lease is taken until every slot below recoveryEnd is chosen: until then, a value an earlier leader got chosen
+     * may be missing from the log this proposer would read.
+     */
+    private void extendLease(Proposal proposal) {
+        if (member.config.leaseDuration <= 0 || !leader || proposal.getProposalNumber() != ballot) return;
+        if (firstUnchosen < recoveryEnd) return;
+        long expiry = proposal.sentAt + TimeUnit.MILLISECONDS.toNanos(member.config.leaseDuration - member.config.leaseDrift);
+        if (expiry - leaseExpiry > 0) leaseExpiry = expiry;
+    }
+
+    /**
+     * @return  true if this proposer is leader and its lease has not run out
+     */
+    private boolean holdsLease() {
+        return leader && member.config.leaseDuration > 0 && System.nanoTime() - leaseExpiry < 0;
+    }
+
+    /**
+     * Reads the log without any messages, using the leader lease. While the lease is held no other proposer can get a
+     * value chosen, so the log is complete once the local learner has every slot this proposer has seen chosen, and
+     * every slot recovered in phase one.
+     *
+     * @return  future completing with the log, or with null if the local learner does not catch up within
+     *          RETRY_DELAY. Null (not a future) if this proposer does not hold a lease
+     */
+    @Override
+    public synchronized CompletableFuture<List<String>> leasedRead() {
+        if (!holdsLease() || member.getLearner(group) == null) return null;
+        int slots = Math.max(recoveryEnd, chosenAhead.isEmpty() ? firstUnchosen : chosenAhead.last() + 1);
+        CompletableFuture<List<String>> read = member.getLearner(group).awaitLog(slots);
+        if (!read.isDone()) {
+            // the local learner may have missed a LEARN and be waiting for its retry
+            scheduler.schedule(() -> read.complete(null), RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+        return read;
+    }
+
+    /**
+     * Handles a READ_REQ forwarded by another member. Answers with READ containing the log if this proposer holds a
+     * lease, otherwise with NACK.
+     *
+     * @param message       the incoming READ_REQ type message
+     * @param responder     sends the response to the reader
+     */
+    @Override
+    public void handleReadRequest(Message message, Network.Responder responder) {
+        CompletableFuture<List<String>> read = leasedRead();
+        if (read == null) {
+            responder.respond(Message.nack(member.config.memberID));
+            return;
+        }
+        log.info(member.config.memberID + ": Serving READ_REQ from " + message.senderID + " under lease");
+        read.whenComplete((values, ex) -> responder.respond(values == null
+                ? Message.nack(member.config.memberID)
+                : Message.read(member.config.memberID, Batch.encode(values))));
+    }
+
+    /**
+     * Broadcasts a PREPARE_REQ message covering every slot from firstUnchosen onwards to all acceptors (including
+     * self). Responses are handled by processPrepareReqResponse.
+     */
+    private synchronized void sendPrepareRequest() {
+        // create a new PREPARE_REQ message and a Proposal object to store proposal data.
+        long currentProposalNum = Ballot.of(proposalCounter.incrementAndGet(), memberIndex);
+        Message prepare = Message.prepareRequest(currentProposalNum, member.config.memberID, firstUnchosen);
+        prepare.group = group;
+        Proposal proposal = new Proposal(currentProposalNum, firstUnchosen);
+        preparing = proposal;
+        scheduleTimeout(proposal);
 
         if (member.currentlyCoorong) return;
-        log.info(member.config.memberID + ": Broadcasting PREPARE_REQ with proposal number " + currentProposalNum);
+        log.info(member.config.memberID + ": Broadcasting PREPARE_REQ with proposal number " + Ballot.toString(currentProposalNum)
+                + " from slot " + firstUnchosen);
+
+        // send PREPARE_REQ message to all acceptors in networkInfo. The message is marshalled once (and delivered to
+        // this member in-process), and the quorum future completes as soon as a phase one quorum have promised,
+        // abandoning any slower acceptors
+        broadcastToAcceptors(prepare, member.config.phaseOneQuorum, response -> processPrepareReqResponse(proposal, response))
+                .whenComplete((promises, ex) -> {
+                    if (ex != null) {
+                        loseRound(proposal, "cannot reach a quorum of PROMISEs - " + rootCause(ex).getMessage());
+                    } else {
+                        checkPhaseOneMajority(proposal);
+                    }
+                });
+    }
 
-        // send PREPARE_REQ message to all acceptors in networkInfo
+    /**
+     * @return  network information of all acceptors (including self if this member is an acceptor)
+     */
+    private List<MemberConfig.MemberInfo> acceptors() {
+        List<MemberConfig.MemberInfo> acceptors = new ArrayList<>();
         for (MemberConfig.MemberInfo memberInfo : this.member.config.networkInfo.values()) {
-            if (memberInfo.isAcceptor) {
-                // use sendMessage function of Network to send message to a ServerSocket. Returns a
-                // CompletableFuture<Message> object which is passed to handlePrepareReqResponse()
-                prepare.send(memberInfo.address, memberInfo.port)
-                        .thenAccept(this::handlePrepareReqResponse)
-                        .exceptionally(ex -> {
-                            log.info(member.config.memberID + ": Communication failed for PREPARE_REQ to " + memberInfo.id
-                                    + " for proposal " + prepare.proposalNumber
-                                    + ", incrementing reject count");
-                            // count failure to send/receive as a rejection
-                            activeProposal.incrementRejectCount();
-                            checkPhaseOneMajority();
-                            return null;
-                        });
-            }
+            if (memberInfo.isAcceptor) acceptors.add(memberInfo);
         }
+        return acceptors;
     }
 
     /**
-     * Handles responses to a PREPARE_REQ message (PROMISE or REJECT)
+     * Broadcasts a phase one or phase two message to the acceptors. In thrifty mode the message is sent only to the
+     * `quorum` acceptors that have been replying fastest, and to the rest only if one of them does not reply with a
+     * match within a deadline adapted to their observed latency. Every reply updates the latency of its sender, and a
+     * first-choice acceptor that never replied is penalised so the next round picks another.
+     *
+     * @param message   message to broadcast
+     * @param quorum    number of matching replies required
+     * @param matcher   decides whether a reply counts towards the quorum
+     * @return          QuorumFuture completing with the matching replies
+     */
+    private QuorumFuture broadcastToAcceptors(Message message, int quorum, Predicate<Message> matcher) {
+        if (!member.config.thrifty) return member.getNetwork().broadcast(message, acceptors(), quorum, matcher);
+
+        List<MemberConfig.MemberInfo> ordered = latencies.fastestFirst(acceptors());
+        List<MemberConfig.MemberInfo> targets = ordered.subList(0, Math.min(quorum, ordered.size()));
+        long deadline = latencies.deadline(targets);
+        Set<String> replied = ConcurrentHashMap.newKeySet();
+        long sentAt = System.nanoTime();
+
+        QuorumFuture result = member.getNetwork().broadcastThrifty(message, ordered, quorum, response -> {
+            replied.add(response.senderID);
+            latencies.record(response.senderID, (System.nanoTime() - sentAt) / 1_000_000.0);
+            return matcher.test(response);
+        }, deadline);
+        result.whenComplete((replies, ex) -> {
+            for (MemberConfig.MemberInfo target : targets) {
+                if (!replied.contains(target.id)) latencies.recordFailure(target.id);
+            }
+        });
+        return result;
+    }
+
+    private static Throwable rootCause(Throwable ex) {
+        return (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+    }
+
+    /**
+     * Handles responses to a PREPARE_REQ message (PROMISE or REJECT) that arrive outside of a broadcast
      *
      * @param response       The response Message.
      */
     @Override
     public void handlePrepareReqResponse(Message response) {
-        if (member.currentlyCoorong) return;
+        Proposal proposal;
+        synchronized (this) {
+            proposal = preparing;
+        }
+        if (proposal != null && processPrepareReqResponse(proposal, response)) checkPhaseOneMajority(proposal);
+    }
+
+    /**
+     * Records a response to a PREPARE_REQ message (PROMISE or REJECT) against a phase one proposal
+     *
+     * @param proposal       the proposal the PREPARE_REQ was sent for
+     * @param response       The response Message.
+     * @return               true if the response is a PROMISE for the proposal
+     */
+    private boolean processPrepareReqResponse(Proposal proposal, Message response) {
+        if (member.currentlyCoorong) return false;
 
         // simulate node reliability (includes changes due to coorong/sheoak)
-        if (member.simulateNodeReliability()) return;
+        if (member.simulateNodeReliability()) return false;
 
         // simulate node delays (includes changes due to coorong/sheoak)
         try {
@@ -133,103 +589,155 @@ public class Proposer implements Member.ProposerRole {
             throw new RuntimeException(e);
         }
 
-        int proposalNumber = response.proposalNumber;
-        if (activeProposal == null) return;
-        if (activeProposal.getProposalNumber() != proposalNumber) return;
+        long proposalNumber = response.proposalNumber;
+        if (proposal.getProposalNumber() != proposalNumber || proposal.isPhaseOneCompleted()) return false;
 
-        if (member.currentlyCoorong) return;
+        if (member.currentlyCoorong) return false;
         if (response.type.equals("PROMISE")) {
-            activeProposal.addPromise(response);
-            log.info(member.config.memberID + ": Received PROMISE from " + response.senderID + " for proposal " + proposalNumber);
-            checkPhaseOneMajority();
+            proposal.addPromise(response);
+            log.info(member.config.memberID + ": Received PROMISE from " + response.senderID + " for proposal " + Ballot.toString(proposalNumber));
+            return true;
         } else if (response.type.equalsIgnoreCase("REJECT")) {
-            activeProposal.incrementRejectCount();
-            // if node is rejecting because it has promised a proposal with a greater ID, update proposal counter to
-            // match to ensure next prepare message will have a current ID:
-            if (response.highestPromisedProposal > this.proposalCounter.get()) {
-                proposalCounter.set(response.highestPromisedProposal);
+            proposal.incrementRejectCount();
+            // if node is rejecting because it has promised a higher ballot, catch up with its round to ensure the
+            // next prepare message will have a current ballot:
+            proposalCounter.accumulateAndGet(Ballot.round(response.highestPromisedProposal), Math::max);
+            log.info(member.config.memberID + ": Received REJECT from " + response.senderID + " for proposal " + Ballot.toString(proposalNumber));
+            // a higher promise means this round is lost
+            if (response.highestPromisedProposal > proposalNumber) {
+                loseRound(proposal, "was pre-empted by proposal " + Ballot.toString(response.highestPromisedProposal));
             }
-            log.info(member.config.memberID + ": Received REJECT from " + response.senderID + " for proposal " + proposalNumber);
-            checkPhaseOneMajority();
         } else {
             log.info(member.config.memberID + ": Unexpected response to PREPARE_REQ: " + response.type + " from " + response.senderID +
-                    " for proposal " + proposalNumber);
+                    " for proposal " + Ballot.toString(proposalNumber));
         }
+        return false;
     }
 
     /**
-     * Check if PROMISE majority has been reached for activeProposal
+     * Check if a phase one quorum of PROMISEs has been reached for a phase one proposal. If so, this proposer becomes leader, and
+     * every value reported by the acceptors is queued to be re-proposed in its slot. Slots below the highest reported
+     * slot with no reported value are filled with a no-op, so the log has no gaps. Own batches last proposed beyond
+     * the recovered slots were not accepted by this quorum, so they are proposed again in new slots. An acceptor that
+     * has compacted its state reports the slot it compacted below, and every slot below it is chosen, so recovery
+     * starts from the highest such slot.
      */
-    private synchronized void checkPhaseOneMajority() {
+    private synchronized void checkPhaseOneMajority(Proposal proposal) {
         // majority has already been reached and algorithm has progressed, just return:
-        if (activeProposal.isPhaseOneCompleted()) return;
-
-        if (activeProposal.getPromiseCount() >= majority) {
-            log.info(member.config.memberID + ": Majority PROMISEs received for proposal " + activeProposal.getProposalNumber() + ". Sending ACCEPT_REQUEST");
-            activeProposal.markPhaseOneCompleted();
-            activeProposal.resetRejectCount(); // reset for next phase
-            sendAcceptRequest();
-        } else if (activeProposal.getRejectCount() >= majority) {
-            log.info(member.config.memberID + ": Majority REJECTs received for proposal " + activeProposal.getProposalNumber() + " in phase one. Allowing scheduler to retry after timeout");
-            activeProposal.markPhaseOneCompleted();
-            activeProposal.resetRejectCount();
-            // allow scheduler to retry prepare phase after proposal times out, to prevent livelock
+        if (proposal != preparing || proposal.isCompleted()) return;
+
+        if (proposal.getPromiseCount() >= member.config.phaseOneQuorum) {
+            log.info(member.config.memberID + ": Quorum of PROMISEs received for proposal " + Ballot.toString(proposal.getProposalNumber()) + ". Now leader from slot " + proposal.getSlot());
+            proposal.markCompleted();
+            cancelTimeout(proposal);
+            preparing = null;
+            leader = true;
+            ballot = proposal.getProposalNumber();
+            contention.reset();
+
+            int start = proposal.getSlot();
+            for (Message promise : proposal.getPromises()) start = Math.max(start, promise.slot);
+            if (start > proposal.getSlot()) skipCompacted(start);
+
+            // for each slot, the value accepted in the highest proposal must be re-proposed
+            TreeMap<Integer, Message.SlotValue> highest = new TreeMap<>();
+            for (Message promise : proposal.getPromises()) {
+                if (promise.accepted == null) continue;
+                for (Message.SlotValue entry : promise.accepted) {
+                    if (entry.slot < start) continue;
+                    Message.SlotValue current = highest.get(entry.slot);
+                    if (current == null || entry.proposalNumber > current.proposalNumber) {
+                        highest.put(entry.slot, entry);
+                    }
+                }
+            }
+            recovered.clear();
+            int end = highest.isEmpty() ? start : highest.lastKey() + 1;
+            for (int slot = start; slot < end; slot++) {
+                if (chosenAhead.contains(slot)) continue;
+                Proposal recovery = new Proposal(ballot, slot);
+                Message.SlotValue entry = highest.get(slot);
+                recovery.value = entry == null ? Message.NOOP : entry.value;
+                recovered.add(recovery);
+            }
+            if (!recovered.isEmpty()) log.info(member.config.memberID + ": Re-proposing " + recovered.size() + " previously accepted slots");
+            nextSlot = Math.max(end, firstUnchosen);
+            recoveryEnd = end;
+
+            SortedMap<Integer, PendingBatch> lostSlots = batches.tailMap(end);
+            unplaced.addAll(lostSlots.values());
+            lostSlots.clear();
+            proposeNext();
+        } else if (proposal.getRejectCount() > acceptors().size() - member.config.phaseOneQuorum) {
+            loseRound(proposal, "received too many REJECTs in phase one");
         }
     }
 
     /**
-     * Determine proposal value and broadcast an ACCEPT_REQ type message for activeProposal.
-     *  - If any acceptors sent a value/proposal number to the proposer, then proposer sets the value of its proposal to
-     *    the value associated with the highest proposal number reported by the acceptors
-     *  - If none of the acceptors had accepted a proposal up to this point, then the proposer may choose any value for
-     *    its proposal - in this case, preferredValue
+     * @return  most phase two rounds this proposer has had in flight at once
      */
-    private void sendAcceptRequest() {
+    synchronized int peakInFlight() {
+        return peakInFlight;
+    }
+
+    /**
+     * Broadcasts an ACCEPT_REQ type message for one slot, using the proposal number this proposer is leader for.
+     * The value is either one recovered in phase one, or a batch of pending values.
+     *
+     * @param proposal      the phase two proposal, with its slot and value set
+     */
+    private synchronized void sendAcceptRequest(Proposal proposal) {
+        inFlight.put(proposal.getSlot(), proposal);
+        peakInFlight = Math.max(peakInFlight, inFlight.size());
+        proposal.markPhaseOneCompleted();
+        scheduleTimeout(proposal);
         if (member.currentlyCoorong) return;
 
-        log.info(member.config.memberID + ": Broadcasting ACCEPT_REQUEST for proposal " + activeProposal.getProposalNumber());
+        log.info(member.config.memberID + ": Broadcasting ACCEPT_REQUEST for proposal " + Ballot.toString(proposal.getProposalNumber())
+                + " in slot " + proposal.getSlot() + " with value " + proposal.value);
 
-        // assign value to proposal:
-        int largestAcceptedProposal = -1;
-        activeProposal.value = preferredLeader; // use preferred value (self, unless otherwise specified by user)
-        for (Message response : activeProposal.getPromises()) {
-            // if any node has previously accepted a proposal, use that previously accepted value
-            if ((response.acceptedValue != null) && (response.highestPromisedProposal > largestAcceptedProposal)) {
-                largestAcceptedProposal = response.highestPromisedProposal;
-                activeProposal.value = response.acceptedValue;
-            }
-        }
-
-        Message acceptRequest = Message.acceptRequest(activeProposal.getProposalNumber(), member.config.memberID, activeProposal.value);
+        Message acceptRequest = Message.acceptRequest(proposal.getProposalNumber(), member.config.memberID, proposal.getSlot(), proposal.value);
+        acceptRequest.group = group;
+        acceptRequest.lease = member.config.leaseDuration;
+        proposal.sentAt = System.nanoTime();
 
-        // send to all acceptors in the networkInfo:
-        for (MemberConfig.MemberInfo memberInfo : this.member.config.networkInfo.values()) {
-            if (memberInfo.isAcceptor) {
-                acceptRequest.send(memberInfo.address, memberInfo.port)
-                        .thenAccept(this::handleAcceptReqResponse)
-                        .exceptionally(ex -> {
-                            log.info(member.config.memberID + ": Communication failed for ACCEPT_REQ to " + memberInfo.id
-                                    + " for proposal " + activeProposal.getProposalNumber()
-                                    + ", incrementing reject count");
-                            activeProposal.incrementRejectCount();
-                            checkPhaseTwoMajority();
-                            return null;
-                        });
-            }
-        }
+        // send to all acceptors in the networkInfo, completing on the fastest phase two quorum of ACCEPTs:
+        broadcastToAcceptors(acceptRequest, member.config.phaseTwoQuorum, response -> processAcceptReqResponse(proposal, response))
+                .whenComplete((accepts, ex) -> {
+                    if (ex != null) {
+                        loseRound(proposal, "cannot reach a quorum of ACCEPTs - " + rootCause(ex).getMessage());
+                    } else {
+                        checkPhaseTwoMajority(proposal);
+                    }
+                });
     }
 
     /**
-     * Handles incoming responses to an ACCEPT_REQ broadcast (ACCEPT or REJECT)
+     * Handles incoming responses to an ACCEPT_REQ (ACCEPT or REJECT) that arrive outside of a broadcast
      *
      * @param response  the incoming message
      */
     @Override
     public void handleAcceptReqResponse(Message response) {
-        if (member.currentlyCoorong) return;
+        Proposal proposal;
+        synchronized (this) {
+            proposal = inFlight.get(response.slot);
+        }
+        if (proposal != null && processAcceptReqResponse(proposal, response)) checkPhaseTwoMajority(proposal);
+    }
+
+    /**
+     * Records a response to an ACCEPT_REQ (ACCEPT or REJECT) against a phase two proposal
+     *
+     * @param proposal  the proposal the ACCEPT_REQ was sent for
+     * @param response  the incoming message
+     * @return          true if the response is an ACCEPT for the proposal
+     */
+    private boolean processAcceptReqResponse(Proposal proposal, Message response) {
+        if (member.currentlyCoorong) return false;
 
         // simulate node reliability (includes changes due to coorong/sheoak)
-        if (member.simulateNodeReliability()) return;
+        if (member.simulateNodeReliability()) return false;
 
         // simulate node delays (includes changes due to coorong/sheoak)
         try {
@@ -238,47 +746,65 @@ public class Proposer implements Member.ProposerRole {
             throw new RuntimeException(e);
         }
 
-        int proposalNumber = response.proposalNumber;
-        if (activeProposal == null) return;
-        if (activeProposal.getProposalNumber() != proposalNumber) return;
+        long proposalNumber = response.proposalNumber;
+        if (proposal.getProposalNumber() != proposalNumber || proposal.getSlot() != response.slot) return false;
 
         if (response.type.equals("ACCEPT")) {
-            activeProposal.addAccept(response);
-            log.info(member.config.memberID + ": Received ACCEPT from " + response.senderID + " for proposal " + proposalNumber);
-            checkPhaseTwoMajority();
+            proposal.addAccept(response);
+            log.info(member.config.memberID + ": Received ACCEPT from " + response.senderID + " for proposal " + Ballot.toString(proposalNumber) + " in slot " + response.slot);
+            return true;
         } else if (response.type.equalsIgnoreCase("REJECT")) {
-            activeProposal.incrementRejectCount();
-            // if node is rejecting because it has accepted a proposal with a greater ID, update proposal counter to
-            // match to ensure next prepare message will have a current ID:
-            if (response.highestPromisedProposal > this.proposalCounter.get()) {
-                log.info(member.config.memberID + ": Received REJECT from " + response.senderID + " for proposal " + proposalNumber
+            proposal.incrementRejectCount();
+            // if node is rejecting because it has promised a higher ballot, catch up with its round to ensure the
+            // next prepare message will have a current ballot:
+            if (Ballot.round(response.highestPromisedProposal) > this.proposalCounter.get()) {
+                log.info(member.config.memberID + ": Received REJECT from " + response.senderID + " for proposal " + Ballot.toString(proposalNumber)
                 + " with higher promised value. Updating proposal ID for next round");
-                proposalCounter.set(response.highestPromisedProposal);
+                proposalCounter.accumulateAndGet(Ballot.round(response.highestPromisedProposal), Math::max);
             } else {
-                log.info(member.config.memberID + ": Received REJECT from " + response.senderID + " for proposal " + proposalNumber
-                        + " with promised ID: " + response.highestPromisedProposal);
+                log.info(member.config.memberID + ": Received REJECT from " + response.senderID + " for proposal " + Ballot.toString(proposalNumber)
+                        + " with promised ID: " + Ballot.toString(response.highestPromisedProposal));
+            }
+            // another proposer has prepared since this proposer became leader, so leadership is lost
+            if (response.highestPromisedProposal > proposalNumber) {
+                loseRound(proposal, "was pre-empted by proposal " + Ballot.toString(response.highestPromisedProposal));
             }
-            checkPhaseTwoMajority();
         } else {
             log.info(member.config.memberID + ": Unexpected response to ACCEPT_REQ: " + response.type + " from " + response.senderID +
-                    " for proposal " + proposalNumber);
+                    " for proposal " + Ballot.toString(proposalNumber));
         }
+        return false;
     }
 
     /**
-     * Check if ACCEPT majority has been received for activeProposal
+     * Check if a phase two quorum of ACCEPTs has been received for a phase two proposal. If so, the value is chosen for the slot:
+     * LEARN is sent to all learners, the submitters are notified if the value was their batch, and the freed place in
+     * the pipeline is filled. If another value was chosen in the slot an own batch was proposed in, the batch is
+     * proposed again in a new slot.
      */
-    private synchronized void checkPhaseTwoMajority() {
-        if (activeProposal.isCompleted()) return;
-        if (activeProposal.getAcceptCount() >= majority) {
-            log.info(member.config.memberID + ": Majority ACCEPTs received for proposal " + activeProposal.getProposalNumber()
-                    + ". Sending LEARN with value " + activeProposal.value);
-            activeProposal.markCompleted(); // to prevent scheduler from retrying
-            sendLearn(MAX_RETRIES);
-            activeProposal = null;
-        } else if (activeProposal.getRejectCount() >= majority) {
-            log.info(member.config.memberID + ": Majority REJECTS received for proposal " + activeProposal.getProposalNumber() + " in phase two. Retrying");
-            // wait for scheduler to retry
+    private synchronized void checkPhaseTwoMajority(Proposal proposal) {
+        if (inFlight.get(proposal.getSlot()) != proposal || proposal.isCompleted()) return;
+        if (proposal.getAcceptCount() >= member.config.phaseTwoQuorum) {
+            log.info(member.config.memberID + ": Quorum of ACCEPTs received for proposal " + Ballot.toString(proposal.getProposalNumber())
+                    + " in slot " + proposal.getSlot() + ". Sending LEARN with value " + proposal.value);
+            proposal.markCompleted(); // to prevent scheduler from retrying
+            cancelTimeout(proposal);
+            inFlight.remove(proposal.getSlot());
+            sendLearn(proposal, MAX_RETRIES);
+            markChosen(proposal.getSlot());
+            extendLease(proposal);
+
+            PendingBatch batch = batches.remove(proposal.getSlot());
+            if (batch != null && batch.id.equals(Batch.id(proposal.value))) {
+                for (Submission submission : batch.submissions) {
+                    submission.chosen.complete(proposal.getSlot());
+                }
+            } else if (batch != null) {
+                unplaced.addFirst(batch);
+            }
+            proposeNext();
+        } else if (proposal.getRejectCount() > acceptors().size() - member.config.phaseTwoQuorum) {
+            loseRound(proposal, "received too many REJECTs in phase two");
         }
     }
 
@@ -292,17 +818,21 @@ public class Proposer implements Member.ProposerRole {
         if (member.currentlyCoorong) return;
 
         // determine if REJECT is for PREPARE_REQ or ACCEPT_REQ
-        int proposalNumber = response.proposalNumber;
-        if (activeProposal == null) {
-            log.info(member.config.memberID + ": Received incoming REJECT from " + response.senderID + " with no active proposal.");
-        } else if (activeProposal.getProposalNumber() != proposalNumber) {
-            log.info(member.config.memberID + ": Received incoming REJECT from " + response.senderID + " for expired proposal " + proposalNumber);
-        } else if (!activeProposal.isPhaseOneCompleted()) {
-            // proposal is active and phase one is incomplete, REJECT is in response to prepare request
+        Proposal prepare;
+        Proposal accept;
+        synchronized (this) {
+            prepare = preparing;
+            accept = inFlight.get(response.slot);
+        }
+        long proposalNumber = response.proposalNumber;
+        if (prepare != null && prepare.getProposalNumber() == proposalNumber) {
+            // phase one is in progress for this proposal, REJECT is in response to prepare request
             handlePrepareReqResponse(response);
-        } else if (!activeProposal.isCompleted()) {
-            // proposal is active and phase two is incomplete, REJECT is in response to accept request
+        } else if (accept != null && accept.getProposalNumber() == proposalNumber) {
+            // phase two is in progress for this slot, REJECT is in response to accept request
             handleAcceptReqResponse(response);
+        } else {
+            log.info(member.config.memberID + ": Received incoming REJECT from " + response.senderID + " for expired proposal " + Ballot.toString(proposalNumber));
         }
     }
 
@@ -316,15 +846,15 @@ public class Proposer implements Member.ProposerRole {
      */
     private void sendLearnSingleNode(Message learn, MemberConfig.MemberInfo memberInfo, int retries) {
         if (member.currentlyCoorong) return;
-        learn.send(memberInfo.address, memberInfo.port)
+        member.getNetwork().send(learn, memberInfo)
                 .thenAccept(response -> {
                     if (response.type.equals("ACK")) {
                         log.info(member.config.memberID + ": Received ACK from " + response.senderID
-                                + " for LEARN message with value " + activeProposal.value);
+                                + " for LEARN message with value " + learn.value + " in slot " + learn.slot);
                     } else if (response.type.equals("NACK")) {
                         if (retries > 0) {
                             log.info(member.config.memberID + ": Received NACK from " + response.senderID
-                                    + " for LEARN message with value " + activeProposal.value
+                                    + " for LEARN message with value " + learn.value
                                     + ". Retrying " + retries + " more times");
                             try {
                                 Thread.sleep(1000);
@@ -334,18 +864,18 @@ public class Proposer implements Member.ProposerRole {
                             sendLearnSingleNode(learn, memberInfo, retries - 1);
                         } else {
                             log.info(member.config.memberID + ": Received too many NACKs from " + response.senderID
-                                    + " for LEARN message with value " + activeProposal.value
+                                    + " for LEARN message with value " + learn.value
                                     + ". Node has not learned value");
                         }
                     } else {
                         log.info(member.config.memberID + ": Received unexpected message type: " + response.type + " from "
-                                + response.senderID + " for LEARN message with value " + activeProposal.value);
+                                + response.senderID + " for LEARN message with value " + learn.value);
                     }
                 })
                 .exceptionally(ex -> {
                     if (retries > 0) {
                         log.info(member.config.memberID + ": No response to LEARN received from " + memberInfo.id
-                                + " for proposal " + activeProposal.getProposalNumber()
+                                + " for slot " + learn.slot
                                 + ". Retrying " + retries + " more times");
                         try {
                             Thread.sleep(1000);
@@ -355,7 +885,7 @@ public class Proposer implements Member.ProposerRole {
                         sendLearnSingleNode(learn, memberInfo, retries - 1);
                     } else {
                         log.info(member.config.memberID + ": Received no response to LEARN from " + memberInfo.id
-                                + " for proposal " + activeProposal.getProposalNumber()
+                                + " for slot " + learn.slot
                                 + " too many times. Cannot confirm node has learned value");
                     }
                     return null;
@@ -363,13 +893,15 @@ public class Proposer implements Member.ProposerRole {
     }
 
     /**
-     * Broadcasts a LEARN message to all learners for activeProposal. Uses sendLearnSingleNode to recursively retry
+     * Broadcasts a LEARN message to all learners for a chosen proposal. Uses sendLearnSingleNode to recursively retry
      * attempts.
      *
+     * @param proposal      the proposal whose value has been chosen
      * @param maxRetries    how many times a failed send should be retried before giving up
      */
-    private void sendLearn(int maxRetries) {
-        Message learn = Message.learn(activeProposal.getProposalNumber(), member.config.memberID, activeProposal.value);
+    private void sendLearn(Proposal proposal, int maxRetries) {
+        Message learn = Message.learn(proposal.getProposalNumber(), member.config.memberID, proposal.getSlot(), proposal.value);
+        learn.group = group;
         // send to all learners in networkInfo:
         for (MemberConfig.MemberInfo memberInfo : this.member.config.networkInfo.values()) {
             if (memberInfo.isLearner) {
@@ -405,11 +937,11 @@ public class Proposer implements Member.ProposerRole {
                             System.out.println("Proposing self");
                             this.preferredLeader = member.config.memberID;
                         }
-                        // send proposal to all nodes in networkInfo:
-                        sendPrepareRequest();
+                        // submit value to be appended to the log:
+                        submit(preferredLeader);
                     } else if (command.equals("EXIT")) {
                         System.out.println("Shutting down...");
-                        shutdown();
+                        member.shutdown();
                     } else {
                         System.out.println("Unknown command: " + command);
                         System.out.println("Usage:");
@@ -425,8 +957,7 @@ public class Proposer implements Member.ProposerRole {
 
     @Override
     public void shutdown() {
-        executor.shutdownNow(); // shutdown executor
-        scheduler.shutdownNow(); // shutdown scheduler
+        executor.shutdownNow(); // shutdown executor, the shared scheduler is shut down by member
         log.info(member.config.memberID + ": Proposer shutdown complete");
     }
 }
\ No newline at end of file
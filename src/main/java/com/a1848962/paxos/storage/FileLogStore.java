@@ -0,0 +1,230 @@
+package com.a1848962.paxos.storage;
+
+import com.a1848962.paxos.utils.SimpleLogger;
+import com.a1848962.paxos.utils.ThreadPools;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogStore appending entries to a single file, written with FileChannel (storage=file). Each entry is written as a
+ * frame (see Frames). On opening, frames are read back until the end of the file or the first incomplete or corrupt
+ * frame (an append interrupted by a crash), and the file is truncated there.
+ * <p>
+ * Appends are written by a single writer thread using group commit: entries appended while the writer is busy wait in
+ * a queue, and the writer then writes all of them at once and, if sync is set, forces them to disk with one fsync
+ * before completing their futures. Under load, the number of fsyncs therefore stays roughly constant while the number
+ * of entries per fsync grows.
+ * <p>
+ * Compaction rewrites the live entries to a new file, which then replaces the log. It runs on the writer thread, so
+ * entries appended meanwhile wait for it before they are written.
+ */
+public class FileLogStore implements LogStore {
+    private static class Pending {
+        final ByteBuffer frame;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Pending(ByteBuffer frame) {
+            this.frame = frame;
+        }
+    }
+
+    private final Path file;
+    private final boolean sync;
+    private FileChannel channel; // replaced by compaction, used by the writer thread once open
+    private final List<LogEntry> recovered;
+    private final ExecutorService writer;
+
+    private final Object queueLock = new Object();
+    private List<Pending> queue = new ArrayList<>(); // guarded by queueLock
+    private boolean flushQueued = false; // a flush task has been submitted and not yet taken the queue, guarded by queueLock
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    private static final SimpleLogger log = new SimpleLogger("STORAGE");
+
+    /**
+     * Opens the log, creating the file and its parent directories if missing, and recovers the entries in it.
+     *
+     * @param file  file holding the log
+     * @param sync  true to fsync each group of entries before completing their futures
+     */
+    public FileLogStore(Path file, boolean sync) {
+        this.file = file;
+        this.sync = sync;
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.recovered = Collections.unmodifiableList(LogEntry.live(readEntries()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to open log " + file, ex);
+        }
+        this.writer = ThreadPools.single("wal-" + file.getFileName());
+    }
+
+    @Override
+    public CompletableFuture<Void> append(LogEntry entry) {
+        Pending pending = new Pending(Frames.encode(entry));
+        synchronized (queueLock) {
+            queue.add(pending);
+            if (!flushQueued) {
+                flushQueued = true;
+                writer.execute(this::flush);
+            }
+        }
+        return pending.written;
+    }
+
+    @Override
+    public void compact(int slot) {
+        append(LogEntry.compacted(slot)).join();
+        CompletableFuture.runAsync(this::rewrite, writer).join();
+    }
+
+    @Override
+    public List<LogEntry> recover() {
+        return recovered;
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown(); // queued flushes still run
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) log.warn("Timed out writing log " + file);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            log.warn("Failed to close log " + file + ": " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public long appends() {
+        return appends.get();
+    }
+
+    @Override
+    public long syncs() {
+        return syncs.get();
+    }
+
+    /**
+     * Writes every queued entry with a single write and at most one fsync. Runs on the writer thread only.
+     */
+    private void flush() {
+        List<Pending> group;
+        synchronized (queueLock) {
+            group = queue;
+            queue = new ArrayList<>();
+            flushQueued = false; // entries queued from now on need another flush
+        }
+        if (group.isEmpty()) return;
+        ByteBuffer[] frames = new ByteBuffer[group.size()];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = group.get(i).frame;
+        }
+        try {
+            long remaining = 0;
+            for (ByteBuffer frame : frames) remaining += frame.remaining();
+            while (remaining > 0) {
+                remaining -= channel.write(frames);
+            }
+            if (sync) {
+                channel.force(false);
+                syncs.incrementAndGet();
+            }
+            appends.addAndGet(frames.length);
+            for (Pending pending : group) pending.written.complete(null);
+        } catch (IOException ex) {
+            log.error("Failed to write log " + file + ": " + ex.getMessage());
+            UncheckedIOException failure = new UncheckedIOException(ex);
+            for (Pending pending : group) pending.written.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Replaces the log with a file holding only its live entries. Runs on the writer thread only.
+     */
+    private void rewrite() {
+        Path temporary = file.resolveSibling(file.getFileName() + ".compact");
+        try {
+            List<LogEntry> live = LogEntry.live(readEntries());
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (LogEntry entry : live) {
+                    ByteBuffer frame = Frames.encode(entry);
+                    while (frame.hasRemaining()) out.write(frame);
+                }
+                out.force(false); // the new file must be complete before it replaces the log
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to compact log " + file, ex);
+        }
+    }
+
+    /**
+     * Reads the frames from the start of the file, truncating the file after the last intact frame. Leaves the
+     * channel positioned at the end of the file.
+     *
+     * @return  the entries read
+     */
+    private List<LogEntry> readEntries() throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(Frames.HEADER_SIZE);
+        while (position + Frames.HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (!Frames.validLength(length) || position + Frames.HEADER_SIZE + length > size) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + Frames.HEADER_SIZE);
+            if (checksum != Frames.crc(payload.array())) break;
+            try {
+                entries.add(Frames.decode(payload.array()));
+            } catch (IOException ex) {
+                break;
+            }
+            position += Frames.HEADER_SIZE + length;
+        }
+        if (position < size) {
+            log.warn("Discarding " + (size - position) + " bytes of incomplete entries at the end of log " + file);
+            channel.truncate(position);
+        }
+        channel.position(position);
+        return entries;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Unexpected end of log " + file);
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.a1848962.paxos.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk format of a log entry, shared by the stores. Each entry is written as a frame: the length of its contents,
+ * a CRC32 of its contents, then the contents - type, ballot, slot, proposer ID and value. A frame whose length or CRC
+ * does not match (an append interrupted by a crash) marks the end of the log.
+ */
+final class Frames {
+    static final int HEADER_SIZE = 8; // frame length and CRC32, one int each
+    static final int MAX_FRAME = 64 * 1024 * 1024; // larger lengths can only be corruption
+
+    private Frames() {}
+
+    /**
+     * @return  the frame for an entry, positioned for reading
+     */
+    static ByteBuffer encode(LogEntry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(entry.type.ordinal());
+            out.writeLong(entry.ballot);
+            out.writeInt(entry.slot);
+            writeString(out, entry.proposerID);
+            writeString(out, entry.value);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // cannot happen writing to memory
+        }
+        byte[] payload = bytes.toByteArray();
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        frame.putInt(payload.length).putInt(crc(payload)).put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * @param payload   contents of a frame whose CRC matched
+     * @return          the entry
+     */
+    static LogEntry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int type = in.readUnsignedByte();
+        if (type >= LogEntry.Type.values().length) throw new IOException("Unknown log entry type " + type);
+        long ballot = in.readLong();
+        int slot = in.readInt();
+        String proposerID = readString(in);
+        String value = readString(in);
+        return new LogEntry(LogEntry.Type.values()[type], ballot, slot, proposerID, value);
+    }
+
+    /**
+     * @param length    length read from a frame header
+     * @return          true if the length could belong to an intact frame
+     */
+    static boolean validLength(int length) {
+        return length > 0 && length <= MAX_FRAME;
+    }
+
+    static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > in.available()) throw new IOException("String length " + length + " exceeds frame");
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,102 @@
+package com.a1848962.paxos.storage;
+
+import com.a1848962.paxos.network.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A change to role state, as written to a LogStore: an acceptor's new promise or a value it accepted in a slot, a
+ * value a learner learned was chosen for a slot, or the slot below which the log has been compacted.
+ */
+public class LogEntry {
+    public enum Type { PROMISE, ACCEPT, CHOSEN, COMPACTED }
+
+    public final Type type;
+    public final long ballot; // ballot promised, or ballot the value was accepted in (see Ballot)
+    public final int slot; // ACCEPT, CHOSEN and COMPACTED only
+    public final String proposerID; // ACCEPT only
+    public final String value; // ACCEPT and CHOSEN only
+
+    LogEntry(Type type, long ballot, int slot, String proposerID, String value) {
+        this.type = type;
+        this.ballot = ballot;
+        this.slot = slot;
+        this.proposerID = proposerID;
+        this.value = value;
+    }
+
+    public static LogEntry promise(long ballot) {
+        return new LogEntry(Type.PROMISE, ballot, 0, null, null);
+    }
+
+    public static LogEntry accept(Message.SlotValue accepted) {
+        return new LogEntry(Type.ACCEPT, accepted.proposalNumber, accepted.slot, accepted.proposerID, accepted.value);
+    }
+
+    public static LogEntry chosen(int slot, String value) {
+        return new LogEntry(Type.CHOSEN, -1, slot, null, value);
+    }
+
+    public static LogEntry compacted(int slot) {
+        return new LogEntry(Type.COMPACTED, -1, slot, null, null);
+    }
+
+    /**
+     * @return  true for an entry recording a value in a slot (ACCEPT or CHOSEN), which later entries for the same slot
+     *          supersede
+     */
+    public boolean hasSlotValue() {
+        return type == Type.ACCEPT || type == Type.CHOSEN;
+    }
+
+    /**
+     * Acceptors append accepted values after deciding on them, so two appends for one slot can land out of ballot
+     * order; the entry in the higher ballot is the one that was accepted last.
+     *
+     * @param earlier   an entry appended earlier for the same slot, or null
+     * @return          true if this entry replaces it when restoring state
+     */
+    public boolean supersedes(LogEntry earlier) {
+        return earlier == null || ballot >= earlier.ballot;
+    }
+
+    /**
+     * Keeps only the entries needed to restore state: the highest promise, the latest compaction point, and the
+     * value entry for each slot at or above it that supersedes the others for that slot.
+     *
+     * @param entries   entries in append order
+     * @return          the live entries, in append order
+     */
+    static List<LogEntry> live(List<LogEntry> entries) {
+        int compactedBelow = 0;
+        LogEntry promise = null;
+        LogEntry compacted = null;
+        Map<Integer, LogEntry> latest = new HashMap<>();
+        for (LogEntry entry : entries) {
+            if (entry.type == Type.PROMISE && (promise == null || entry.ballot > promise.ballot)) promise = entry;
+            if (entry.type == Type.COMPACTED && entry.slot > compactedBelow) {
+                compactedBelow = entry.slot;
+                compacted = entry;
+            }
+            if (entry.hasSlotValue() && entry.supersedes(latest.get(entry.slot))) latest.put(entry.slot, entry);
+        }
+        List<LogEntry> live = new ArrayList<>();
+        for (LogEntry entry : entries) {
+            if (entry == promise || entry == compacted
+                    || (entry.hasSlotValue() && entry.slot >= compactedBelow && latest.get(entry.slot) == entry)) {
+                live.add(entry);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * @return  the accepted value, for an ACCEPT entry
+     */
+    public Message.SlotValue toSlotValue() {
+        return new Message.SlotValue(slot, ballot, proposerID, value);
+    }
+}
@@ -0,0 +1,89 @@
+package com.a1848962.paxos.storage;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Append-only log of role state changes, replayed when a role restarts so an acceptor never forgets a promise or an
+ * accepted value, and a learner keeps the values it has learned. A role must not reply to a request until the entries
+ * the reply depends on are durable, which is when the future returned by append completes. How durable that is is
+ * selected with the `durability` property in member.properties, and how entries are stored with `storage`.
+ */
+public interface LogStore {
+
+    /**
+     * Appends an entry. Entries become durable in the order they were appended.
+     *
+     * @param entry     the entry to append
+     * @return          future completing once the entry (and every entry appended before it) is durable, or
+     *                  exceptionally if it could not be written
+     */
+    CompletableFuture<Void> append(LogEntry entry);
+
+    /**
+     * @return  the entries written before this store was opened, in append order. Entries superseded by a later one
+     *          (an earlier entry for the same slot, or a lower promise) may be left out
+     */
+    List<LogEntry> recover();
+
+    /**
+     * Discards the entries for slots below `slot` (and superseded entries), releasing the disk space they use. A
+     * COMPACTED entry is appended first, so recover reports the compaction point even after a crash part way through.
+     * Blocks until the compaction point is durable; appends may continue meanwhile.
+     *
+     * @param slot  every slot below this is no longer needed
+     */
+    void compact(int slot);
+
+    /**
+     * @return  number of entries appended since the store was opened
+     */
+    long appends();
+
+    /**
+     * @return  number of times entries were forced to disk since the store was opened
+     */
+    long syncs();
+
+    /**
+     * Waits for appended entries to be written, then releases the underlying file.
+     */
+    void close();
+
+    /**
+     * Opens the store for a storage implementation and durability level.
+     *
+     * @param storage       one of: mmap (preallocated memory-mapped segments, see MappedSegmentStore), file (a single
+     *                      file written with system calls, see FileLogStore)
+     * @param durability    one of: none (state is only held in memory), write (written to the OS before replying,
+     *                      survives the process crashing), fsync (forced to disk before replying, survives the machine
+     *                      crashing; concurrent requests share one fsync)
+     * @param location      where the log is kept, created if missing: the segment directory for mmap, or the file
+     *                      name without its .wal extension for file. Unused for none
+     * @return              the matching store
+     */
+    static LogStore open(String storage, String durability, Path location) {
+        boolean sync;
+        switch (durability.trim().toLowerCase()) {
+            case "none":
+                return new NullLogStore();
+            case "write":
+                sync = false;
+                break;
+            case "fsync":
+                sync = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown durability: " + durability + ". Expected one of: none, write, fsync");
+        }
+        switch (storage.trim().toLowerCase()) {
+            case "mmap":
+                return new MappedSegmentStore(location, sync);
+            case "file":
+                return new FileLogStore(location.resolveSibling(location.getFileName() + ".wal"), sync);
+            default:
+                throw new IllegalArgumentException("Unknown storage: " + storage + ". Expected one of: mmap, file");
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package com.a1848962.paxos.storage;
+
+import com.a1848962.paxos.utils.SimpleLogger;
+import com.a1848962.paxos.utils.ThreadPools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogStore keeping entries in fixed-size segment files that are preallocated and memory-mapped (storage=mmap). An
+ * append copies its frame (see Frames) into the mapping of the current segment, with no system call, and moves to a
+ * new segment once the current one is full. Unused space in a segment reads as zeros, which marks the end of the log.
+ * <p>
+ * An index maps each slot to the position of its superseding entry (see LogEntry.supersedes), and records the position of the highest promise, so a
+ * single entry can be read back without scanning (see read). Whenever a segment fills, and on close, the index is
+ * written to a checkpoint file. Opening the store loads the checkpoint and only scans the entries appended after it,
+ * then reads the live entries the index points to; segments holding nothing after the checkpoint are not mapped until
+ * an entry in them is read.
+ * <p>
+ * Compaction copies the live entries left in older segments to the end of the log, writes a checkpoint, and deletes
+ * the older segments, so the log only ever spans the segments written since the previous compaction.
+ * <p>
+ * With sync set, appended entries are forced to disk by a writer thread before their futures complete, one force of
+ * each dirty segment for all entries appended while the previous force ran (group commit). Without it, an entry is in
+ * the page cache, and survives the process crashing, as soon as append returns.
+ */
+public class MappedSegmentStore implements LogStore {
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final Path directory;
+    private final boolean sync;
+    private int segmentSize; // taken from existing segments when reopening
+
+    // mapped segments, index, and current segment - all guarded by this
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>(); // segment number -> mapping
+    private final TreeMap<Integer, Long> slotIndex = new TreeMap<>(); // slot -> position of its superseding entry
+    private long promiseBallot = -1; // highest promise logged
+    private long promisePosition = -1; // position of its entry, -1 if none
+    private int compactedBelow = 0; // slots below this have been discarded
+    private long compactedPosition = -1; // position of the COMPACTED entry recording it, -1 if none
+    private long segment; // number of the segment being appended to
+    private MappedByteBuffer current; // its mapping, positioned at the end of the log
+    private long appends = 0;
+    private long syncs = 0;
+
+    // group commit - guarded by this
+    private List<CompletableFuture<Void>> unsynced = new ArrayList<>(); // appended, waiting for the next force
+    private final Set<MappedByteBuffer> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean flushQueued = false;
+
+    private final Object checkpointLock = new Object(); // held while writing the checkpoint file, after this if both
+    private long checkpointed = -1; // position covered by the checkpoint file, guarded by checkpointLock
+
+    private final ExecutorService writer; // forces segments to disk, null unless sync is set
+    private final List<LogEntry> recovered;
+
+    private static final SimpleLogger log = new SimpleLogger("SEGMENTS");
+
+    /**
+     * Opens the log, creating its directory and first segment if missing, and recovers the entries in it.
+     *
+     * @param directory     directory holding the segments and checkpoint
+     * @param sync          true to force entries to disk before completing their futures
+     */
+    public MappedSegmentStore(Path directory, boolean sync) {
+        this(directory, sync, DEFAULT_SEGMENT_SIZE);
+    }
+
+    MappedSegmentStore(Path directory, boolean sync, int segmentSize) {
+        this.directory = directory;
+        this.sync = sync;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            synchronized (this) {
+                this.recovered = Collections.unmodifiableList(open());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to open log " + directory, ex);
+        }
+        this.writer = sync ? ThreadPools.single("wal-" + directory.getFileName()) : null;
+    }
+
+    @Override
+    public CompletableFuture<Void> append(LogEntry entry) {
+        ByteBuffer frame = Frames.encode(entry);
+        if (frame.remaining() > segmentSize) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("Entry of " + frame.remaining()
+                    + " bytes does not fit in a segment of " + segmentSize + " bytes"));
+            return failed;
+        }
+        synchronized (this) {
+            try {
+                if (current.remaining() < frame.remaining()) nextSegment();
+            } catch (IOException ex) {
+                log.error("Failed to create segment in " + directory + ": " + ex.getMessage());
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new UncheckedIOException(ex));
+                return failed;
+            }
+            index(entry, position());
+            current.put(frame);
+            appends++;
+            if (!sync) return DONE;
+
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            unsynced.add(written);
+            dirty.add(current);
+            if (!flushQueued) {
+                flushQueued = true;
+                writer.execute(this::flush);
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Reads the entry for a slot through the index.
+     *
+     * @param slot  the slot
+     * @return      its ACCEPT or CHOSEN entry in the highest ballot, or null if none was appended
+     */
+    public synchronized LogEntry read(int slot) {
+        Long position = slotIndex.get(slot);
+        return position == null ? null : readAt(position);
+    }
+
+    @Override
+    public void compact(int slot) {
+        append(LogEntry.compacted(slot)).join();
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        long firstKept;
+        byte[] checkpoint;
+        long position;
+        synchronized (this) {
+            firstKept = segment;
+            List<Long> older = new ArrayList<>();
+            for (long live : livePositions()) {
+                if (live / segmentSize < firstKept) older.add(live);
+            }
+            for (long live : older) copies.add(append(readAt(live))); // re-indexed at the end of the log
+            checkpoint = checkpoint();
+            position = position();
+        }
+        CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0])).join();
+        try {
+            writeCheckpoint(checkpoint, position); // must no longer point into the older segments before they go
+            List<Path> obsolete = new ArrayList<>(segmentFiles().headMap(firstKept).values());
+            synchronized (this) {
+                segments.headMap(firstKept).clear();
+            }
+            for (Path file : obsolete) Files.deleteIfExists(file);
+            if (!obsolete.isEmpty()) log.info("Compacted log " + directory + " below slot " + slot + ", deleted " + obsolete.size() + " segments");
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to compact log " + directory, ex);
+        }
+    }
+
+    @Override
+    public List<LogEntry> recover() {
+        return recovered;
+    }
+
+    @Override
+    public synchronized long appends() {
+        return appends;
+    }
+
+    @Override
+    public synchronized long syncs() {
+        return syncs;
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            writer.shutdown(); // queued forces still run
+            try {
+                if (!writer.awaitTermination(5, TimeUnit.SECONDS)) log.warn("Timed out forcing log " + directory);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                if (sync) current.force();
+                writeCheckpoint(checkpoint(), position());
+            } catch (IOException ex) {
+                log.warn("Failed to write checkpoint for log " + directory + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forces every segment written since the last force. Runs on the writer thread only.
+     */
+    private void flush() {
+        List<CompletableFuture<Void>> group;
+        List<MappedByteBuffer> toForce;
+        synchronized (this) {
+            group = unsynced;
+            unsynced = new ArrayList<>();
+            toForce = new ArrayList<>(dirty);
+            dirty.clear();
+            flushQueued = false; // entries appended from now on need another force
+        }
+        if (group.isEmpty()) return;
+        try {
+            for (MappedByteBuffer buffer : toForce) buffer.force();
+            synchronized (this) {
+                syncs++;
+            }
+            for (CompletableFuture<Void> written : group) written.complete(null);
+        } catch (RuntimeException ex) {
+            log.error("Failed to force log " + directory + ": " + ex.getMessage());
+            for (CompletableFuture<Void> written : group) written.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * @return  position of the end of the log: segment number * segment size + offset in the segment
+     */
+    private long position() {
+        return segment * segmentSize + current.position();
+    }
+
+    private void index(LogEntry entry, long position) {
+        if (entry.type == LogEntry.Type.PROMISE) {
+            if (entry.ballot >= promiseBallot) { // equal when compaction copies the entry
+                promiseBallot = entry.ballot;
+                promisePosition = position;
+            }
+        } else if (entry.type == LogEntry.Type.COMPACTED) {
+            if (entry.slot >= compactedBelow) {
+                compactedBelow = entry.slot;
+                compactedPosition = position;
+                slotIndex.headMap(entry.slot).clear();
+            }
+        } else if (entry.slot >= compactedBelow) {
+            Long previous = slotIndex.get(entry.slot); // only read back when a slot is written again
+            if (previous == null || entry.supersedes(readAt(previous))) slotIndex.put(entry.slot, position);
+        }
+    }
+
+    /**
+     * @return  positions of the entries needed to restore state, in append order
+     */
+    private List<Long> livePositions() {
+        List<Long> live = new ArrayList<>(slotIndex.values());
+        if (promisePosition >= 0) live.add(promisePosition);
+        if (compactedPosition >= 0) live.add(compactedPosition);
+        Collections.sort(live);
+        return live;
+    }
+
+    /**
+     * Moves to a new segment. The full segment is forced (with sync set) before the checkpoint is written, so the
+     * checkpoint never points to entries that could still be lost.
+     */
+    private void nextSegment() throws IOException {
+        if (sync) current.force();
+        MappedByteBuffer next = map(segment + 1, true);
+        segment++;
+        current = next;
+        writeCheckpoint(checkpoint(), position());
+    }
+
+    /**
+     * @param number    segment number
+     * @param create    true to create and preallocate the segment if it does not exist
+     * @return          the mapping of the segment, mapped on first use
+     */
+    private MappedByteBuffer map(long number, boolean create) throws IOException {
+        MappedByteBuffer buffer = segments.get(number);
+        if (buffer != null) return buffer;
+        Path file = directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+        if (!create && !Files.exists(file)) throw new FileNotFoundException("Missing segment " + file);
+        try (RandomAccessFile segmentFile = new RandomAccessFile(file.toFile(), "rw")) {
+            if (segmentFile.length() < segmentSize) segmentFile.setLength(segmentSize);
+            buffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); // outlives the file
+        }
+        segments.put(number, buffer);
+        return buffer;
+    }
+
+    private LogEntry readAt(long position) {
+        try {
+            ByteBuffer view = map(position / segmentSize, false).duplicate();
+            view.position((int) (position % segmentSize));
+            int length = view.getInt();
+            int checksum = view.getInt();
+            byte[] payload = new byte[length];
+            view.get(payload);
+            if (Frames.crc(payload) != checksum) throw new IOException("Corrupt entry at position " + position);
+            return Frames.decode(payload);
+        } catch (IOException | RuntimeException ex) {
+            throw new UncheckedIOException(new IOException("Failed to read log " + directory + ": " + ex.getMessage(), ex));
+        }
+    }
+
+    /**
+     * Loads the checkpoint, scans the entries appended after it, and positions the log at its end.
+     *
+     * @return  the live entries, in append order
+     */
+    private List<LogEntry> open() throws IOException {
+        TreeMap<Long, Path> files = segmentFiles();
+        if (files.isEmpty()) {
+            segment = 0;
+            current = map(0, true);
+            return new ArrayList<>();
+        }
+        segmentSize = (int) Files.size(files.firstEntry().getValue());
+
+        long start = readCheckpoint();
+        if (!files.containsKey(start / segmentSize)) start = 0;
+        if (start == 0) clearIndex();
+        long number = Math.max(start / segmentSize, files.firstKey());
+        int offset = start / segmentSize == number ? (int) (start % segmentSize) : 0;
+        while (true) {
+            MappedByteBuffer buffer = map(number, false);
+            int end = scan(number, buffer, offset);
+            boolean torn = end + Frames.HEADER_SIZE <= segmentSize && buffer.getInt(end) != 0;
+            if (!torn && files.containsKey(number + 1)) {
+                number++; // segment was full
+                offset = 0;
+                continue;
+            }
+            if (torn) {
+                log.warn("Discarding incomplete entries from offset " + end + " of segment " + number + " in log " + directory);
+                for (int i = end; i < segmentSize; i++) buffer.put(i, (byte) 0);
+            }
+            for (Path later : files.tailMap(number, false).values()) {
+                log.warn("Discarding segment " + later + " following the end of the log");
+                Files.delete(later);
+            }
+            segment = number;
+            current = buffer;
+            current.position(end);
+            break;
+        }
+
+        List<LogEntry> entries = new ArrayList<>();
+        for (long position : livePositions()) entries.add(readAt(position));
+        return entries;
+    }
+
+    /**
+     * @return  the segment files in the directory: segment number -> file
+     */
+    private TreeMap<Long, Path> segmentFiles() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Indexes the intact entries of a segment from an offset.
+     *
+     * @return  offset of the end of the last intact entry
+     */
+    private int scan(long number, MappedByteBuffer buffer, int offset) {
+        ByteBuffer view = buffer.duplicate();
+        while (offset + Frames.HEADER_SIZE <= segmentSize) {
+            view.position(offset);
+            int length = view.getInt();
+            int checksum = view.getInt();
+            if (!Frames.validLength(length) || offset + Frames.HEADER_SIZE + length > segmentSize) break;
+            byte[] payload = new byte[length];
+            view.get(payload);
+            if (Frames.crc(payload) != checksum) break;
+            try {
+                index(Frames.decode(payload), number * segmentSize + offset);
+            } catch (IOException ex) {
+                break;
+            }
+            offset += Frames.HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private void clearIndex() {
+        slotIndex.clear();
+        promiseBallot = -1;
+        promisePosition = -1;
+        compactedBelow = 0;
+        compactedPosition = -1;
+    }
+
+    /**
+     * Called while holding this.
+     *
+     * @return  contents of a checkpoint of the index, covering the log up to its current end
+     */
+    private byte[] checkpoint() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48 + slotIndex.size() * 12);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(segmentSize);
+            out.writeLong(position());
+            out.writeLong(promiseBallot);
+            out.writeLong(promisePosition);
+            out.writeInt(compactedBelow);
+            out.writeLong(compactedPosition);
+            out.writeInt(slotIndex.size());
+            for (Map.Entry<Integer, Long> entry : slotIndex.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(Frames.crc(bytes.toByteArray()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // cannot happen writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces the checkpoint file atomically, unless a checkpoint covering a later position was already written.
+     *
+     * @param checkpoint    contents from checkpoint()
+     * @param position      position it covers
+     */
+    private void writeCheckpoint(byte[] checkpoint, long position) throws IOException {
+        synchronized (checkpointLock) {
+            if (position < checkpointed) return;
+            Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(checkpoint);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                if (sync) channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpointed = position;
+        }
+    }
+
+    /**
+     * Loads the index from the checkpoint file, if there is a valid one.
+     *
+     * @return  position up to which the loaded index covers the log, 0 if no checkpoint was loaded
+     */
+    private long readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT);
+        if (!Files.exists(file)) return 0;
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 4 || Frames.crc(Arrays.copyOf(bytes, bytes.length - 4))
+                != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            log.warn("Ignoring corrupt checkpoint " + file + ", scanning the whole log");
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != segmentSize) {
+            log.warn("Ignoring checkpoint " + file + " written for a different segment size");
+            return 0;
+        }
+        long position = in.readLong();
+        promiseBallot = in.readLong();
+        promisePosition = in.readLong();
+        compactedBelow = in.readInt();
+        compactedPosition = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            slotIndex.put(in.readInt(), in.readLong());
+        }
+        return position;
+    }
+}
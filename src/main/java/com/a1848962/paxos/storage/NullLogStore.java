@@ -0,0 +1,38 @@
+package com.a1848962.paxos.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Store for durability=none: nothing is written, and every append is immediately "durable".
+ */
+class NullLogStore implements LogStore {
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    @Override
+    public CompletableFuture<Void> append(LogEntry entry) {
+        return DONE;
+    }
+
+    @Override
+    public List<LogEntry> recover() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void compact(int slot) {}
+
+    @Override
+    public long appends() {
+        return 0;
+    }
+
+    @Override
+    public long syncs() {
+        return 0;
+    }
+
+    @Override
+    public void close() {}
+}
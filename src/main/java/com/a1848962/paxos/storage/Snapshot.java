@@ -0,0 +1,291 @@
+package com.a1848962.paxos.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A learner's state up to a slot: the values of the log in every slot below it, in order, with batches unpacked and
+ * no-ops left out. Once a snapshot is stored, the per-slot entries below its slot are no longer needed and the logs
+ * can be compacted. Immutable.
+ * <p>
+ * The values are the log itself, so a snapshot grows with the log. To keep each compaction proportional to the slots
+ * it folds in rather than to the whole log, a later snapshot is made by extending an earlier one: the values are kept
+ * in an array shared by both, which the later snapshot appends to, and a snapshot file holding the earlier snapshot
+ * is appended to rather than rewritten (see write).
+ */
+public class Snapshot {
+    public static final Snapshot EMPTY = new Snapshot(0, Collections.emptyList());
+
+    public final int slot; // every slot below this is included
+    public final List<String> values;
+    private final Shared shared; // holds values, and the values of any snapshot extending this one
+
+    /**
+     * Values of a snapshot and of the later snapshots extending it. Each snapshot sees a prefix of the array; values
+     * past the end of the longest prefix are only written by extend, under the lock on this.
+     */
+    private static class Shared {
+        String[] values;
+        int size;
+
+        Shared(int capacity) {
+            values = new String[Math.max(16, capacity)];
+        }
+    }
+
+    /**
+     * The first `size` values of a shared array, read without locking: values in the prefix are never overwritten.
+     */
+    private static class Prefix extends AbstractList<String> implements RandomAccess {
+        private final String[] values;
+        private final int size;
+
+        Prefix(String[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    public Snapshot(int slot, List<String> values) {
+        this.slot = slot;
+        this.shared = new Shared(values.size());
+        for (String value : values) shared.values[shared.size++] = value;
+        this.values = new Prefix(shared.values, shared.size);
+    }
+
+    private Snapshot(int slot, Shared shared) {
+        this.slot = slot;
+        this.shared = shared;
+        this.values = new Prefix(shared.values, shared.size);
+    }
+
+    /**
+     * @param later     values of the log after this snapshot's, in order
+     * @return          this snapshot's values followed by `later`, without copying this snapshot's values
+     */
+    public List<String> followedBy(List<String> later) {
+        int size = values.size();
+        return Collections.unmodifiableList(new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return index < size ? values.get(index) : later.get(index - size);
+            }
+
+            @Override
+            public int size() {
+                return size + later.size();
+            }
+        });
+    }
+
+    /**
+     * Makes a later snapshot holding this snapshot's values followed by `more`. Only `more` is copied, unless another
+     * snapshot already extends this one, which leaves this snapshot's values to be copied too.
+     *
+     * @param slot      slot of the later snapshot, every slot below it is included
+     * @param more      values of the slots from this snapshot's slot to `slot`, in order
+     * @return          the later snapshot
+     */
+    public Snapshot extend(int slot, List<String> more) {
+        if (values.isEmpty()) return new Snapshot(slot, more); // nothing to share, and EMPTY is shared by every learner
+        synchronized (shared) {
+            if (shared.size != values.size()) return new Snapshot(slot, followedBy(more)); // already extended
+            if (shared.size + more.size() > shared.values.length) {
+                shared.values = Arrays.copyOf(shared.values, Math.max(shared.values.length * 2, shared.size + more.size()));
+            }
+            for (String value : more) shared.values[shared.size++] = value;
+            return new Snapshot(slot, shared);
+        }
+    }
+
+    /**
+     * @return  true if this snapshot was made by extending `earlier` (or is `earlier`), sharing its values
+     */
+    private boolean isExtensionOf(Snapshot earlier) {
+        return shared == earlier.shared && slot >= earlier.slot && values.size() >= earlier.values.size();
+    }
+
+    /**
+     * @return  the snapshot as bytes: slot, value count, then each value, followed by a CRC32 of all of them
+     */
+    public byte[] encode() {
+        return record(slot, values);
+    }
+
+    private static byte[] record(int slot, List<String> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + values.size() * 8);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(slot);
+            out.writeInt(values.size());
+            for (String value : values) {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+            out.writeInt(Frames.crc(bytes.toByteArray()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // cannot happen writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes     a snapshot from encode
+     * @return          the snapshot
+     * @throws IllegalArgumentException if the bytes are not an intact snapshot
+     */
+    public static Snapshot decode(byte[] bytes) {
+        if (recordEnd(bytes, 0) != bytes.length) throw new IllegalArgumentException("Snapshot is incomplete or corrupt");
+        List<String> values = new ArrayList<>();
+        int slot = readRecord(bytes, 0, values);
+        return new Snapshot(slot, values);
+    }
+
+    /**
+     * @return  index just past the intact record starting at `start`, or -1 if it is incomplete or corrupt
+     */
+    private static int recordEnd(byte[] bytes, int start) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = start + 8L;
+        if (position + 4 > bytes.length) return -1;
+        int count = buffer.getInt(start + 4);
+        if (count < 0) return -1;
+        for (int i = 0; i < count; i++) {
+            if (position + 4 > bytes.length) return -1;
+            int length = buffer.getInt((int) position);
+            if (length < 0) return -1;
+            position += 4L + length;
+        }
+        if (position + 4 > bytes.length) return -1;
+        int end = (int) position;
+        if (Frames.crc(Arrays.copyOfRange(bytes, start, end)) != buffer.getInt(end)) return -1;
+        return end + 4;
+    }
+
+    /**
+     * Reads an intact record (see recordEnd), adding its values to `values`.
+     *
+     * @return  the record's slot
+     */
+    private static int readRecord(byte[] bytes, int start, List<String> values) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int slot = buffer.getInt(start);
+        int count = buffer.getInt(start + 4);
+        int position = start + 8;
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt(position);
+            values.add(new String(bytes, position + 4, length, StandardCharsets.UTF_8));
+            position += 4 + length;
+        }
+        return slot;
+    }
+
+    /**
+     * Replaces the snapshot in a file atomically, so a crash leaves either the old or the new snapshot.
+     *
+     * @param file  file holding the snapshot, created with its parent directories if missing
+     * @param sync  true to force the snapshot to disk before it replaces the old one
+     */
+    public void write(Path file, boolean sync) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(encode());
+                while (buffer.hasRemaining()) channel.write(buffer);
+                if (sync) channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write snapshot " + file, ex);
+        }
+    }
+
+    /**
+     * Stores the snapshot in a file holding an earlier one. If this snapshot extends it, only a record of the values
+     * added since is appended, which read adds to the earlier snapshot; a crash while appending leaves a torn record
+     * that read discards. Otherwise the file is replaced as by write(file, sync).
+     *
+     * @param file      file holding `stored`
+     * @param stored    the snapshot last written to the file
+     * @param sync      true to force the snapshot to disk before returning
+     */
+    public void write(Path file, Snapshot stored, boolean sync) {
+        if (!isExtensionOf(stored) || !Files.exists(file)) {
+            write(file, sync);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long size = channel.size();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(record(slot, values.subList(stored.values.size(), values.size())));
+                while (buffer.hasRemaining()) channel.write(buffer);
+                if (sync) channel.force(true);
+            } catch (IOException ex) {
+                channel.truncate(size); // the next append must follow `stored`, not part of this one
+                throw ex;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to append to snapshot " + file, ex);
+        }
+    }
+
+    /**
+     * Reads a snapshot file: a full snapshot, followed by a record for each snapshot appended to it since. A torn or
+     * corrupt record after the first is cut off the file, along with anything after it, so later appends follow the
+     * last intact record.
+     *
+     * @param file  file holding a snapshot
+     * @return      the snapshot, or EMPTY if the file does not exist
+     * @throws IllegalArgumentException if the first record is not intact
+     */
+    public static Snapshot read(Path file) {
+        if (!Files.exists(file)) return EMPTY;
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            int end = recordEnd(bytes, 0);
+            if (end < 0) throw new IllegalArgumentException("Snapshot " + file + " is incomplete or corrupt");
+            List<String> values = new ArrayList<>();
+            int slot = readRecord(bytes, 0, values);
+            while (end < bytes.length) {
+                int next = recordEnd(bytes, end);
+                if (next < 0) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(end);
+                        channel.force(true);
+                    }
+                    break;
+                }
+                slot = readRecord(bytes, end, values);
+                end = next;
+            }
+            return new Snapshot(slot, values);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to read snapshot " + file, ex);
+        }
+    }
+}
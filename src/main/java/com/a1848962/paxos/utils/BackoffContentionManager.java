@@ -0,0 +1,35 @@
+package com.a1848962.paxos.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Randomised exponential backoff. After the n-th consecutive lost round, the proposer waits a random time between
+ * half and all of base * 2^(n-1) ms, capped at max ms, so competing proposers quickly spread out in time. On top of
+ * that, each proposer yields rank * base ms to the proposers with lower member IDs, matching the priority acceptors
+ * give them when proposal numbers tie, so the highest priority proposer usually retries first and wins.
+ */
+public class BackoffContentionManager implements ContentionManager {
+    private final long base;
+    private final long max;
+    private final int rank;
+    private int failures = 0; // consecutive lost rounds, guarded by this
+
+    public BackoffContentionManager(long base, long max, int rank) {
+        this.base = Math.max(1, base);
+        this.max = Math.max(this.base, max);
+        this.rank = rank;
+    }
+
+    @Override
+    public synchronized long backoff() {
+        failures++;
+        long window = Math.min(max, base << Math.min(failures - 1, 20));
+        long jittered = window / 2 + ThreadLocalRandom.current().nextLong(window / 2 + 1);
+        return jittered + rank * base;
+    }
+
+    @Override
+    public synchronized void reset() {
+        failures = 0;
+    }
+}
@@ -0,0 +1,53 @@
+package com.a1848962.paxos.utils;
+
+/**
+ * Ballot (proposal number) helpers. A ballot is a single long: the proposer's round in the high 32 bits, and its
+ * member index in the low 32 bits, stored inverted so that for equal rounds the proposer with the lower member ID has
+ * priority. Every proposer therefore has its own ballots, and ordering two ballots is a single comparison.
+ */
+public class Ballot {
+    public static final long NONE = -1; // lower than every ballot, nothing promised or accepted yet
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+    private Ballot() {}
+
+    /**
+     * @param round         proposer's round, starting from 1
+     * @param memberIndex   n for member M&lt;n&gt;
+     * @return              the ballot
+     */
+    public static long of(int round, int memberIndex) {
+        return ((long) round << 32) | (INDEX_MASK - memberIndex);
+    }
+
+    public static int round(long ballot) {
+        return (int) (ballot >> 32);
+    }
+
+    public static int memberIndex(long ballot) {
+        return (int) (INDEX_MASK - (ballot & INDEX_MASK));
+    }
+
+    /**
+     * Parses the member index from a member ID. Called once per proposer, so ballots never need string parsing.
+     *
+     * @param memberID  member ID of the form M&lt;n&gt;
+     * @return          n
+     */
+    public static int memberIndex(String memberID) {
+        try {
+            if (memberID.startsWith("M")) return Integer.parseInt(memberID.substring(1));
+        } catch (NumberFormatException ignored) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Member ID must be of the form M<n>: " + memberID);
+    }
+
+    /**
+     * @return  readable form of a ballot for logging, e.g. 3.M1
+     */
+    public static String toString(long ballot) {
+        if (ballot == NONE) return "none";
+        return round(ballot) + ".M" + memberIndex(ballot);
+    }
+}
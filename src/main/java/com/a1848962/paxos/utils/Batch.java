@@ -0,0 +1,101 @@
+package com.a1848962.paxos.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packs several submitted values into the single value proposed for one log slot, so a burst of submissions is
+ * decided in one Paxos round. A batch is written as PREFIX followed by `length:value` for each value. A batch of one
+ * value is proposed as the value itself, unless the value could be mistaken for a batch.
+ * <p>
+ * A batch can also carry an id, written as `length#id` before its values, so the proposer that packed it can tell
+ * its own batch apart from an equal value chosen for someone else. A tagged batch is always written in full.
+ */
+public class Batch {
+    public static final String PREFIX = "BATCH:";
+
+    private Batch() {}
+
+    /**
+     * @param values    values to pack, in order
+     * @return          a single value representing all of `values`
+     */
+    public static String encode(List<String> values) {
+        if (values.size() == 1 && !values.get(0).startsWith(PREFIX)) return values.get(0);
+        StringBuilder batch = new StringBuilder(PREFIX);
+        for (String value : values) {
+            batch.append(value.length()).append(':').append(value);
+        }
+        return batch.toString();
+    }
+
+    /**
+     * @param id        identifies the batch, unique to the proposer packing it
+     * @param values    values to pack, in order
+     * @return          a single value representing all of `values`, carrying `id`
+     */
+    public static String encode(String id, List<String> values) {
+        StringBuilder batch = new StringBuilder(PREFIX);
+        batch.append(id.length()).append('#').append(id);
+        for (String value : values) {
+            batch.append(value.length()).append(':').append(value);
+        }
+        return batch.toString();
+    }
+
+    /**
+     * @param value     a value chosen for a log slot
+     * @return          the values packed into it, or just `value` if it is not a batch
+     */
+    public static List<String> decode(String value) {
+        if (!value.startsWith(PREFIX)) return Collections.singletonList(value);
+        List<String> values = new ArrayList<>();
+        int position = PREFIX.length();
+        if (position < value.length() && value.charAt(separator(value, position)) == '#') {
+            position = end(value, position); // id, not a value
+        }
+        while (position < value.length()) {
+            int separator = separator(value, position);
+            if (value.charAt(separator) != ':') throw new IllegalArgumentException("Malformed batch: " + value);
+            int end = end(value, position);
+            values.add(value.substring(separator + 1, end));
+            position = end;
+        }
+        return values;
+    }
+
+    /**
+     * @param value     a value chosen for a log slot
+     * @return          the id the batch was packed with, or null if `value` is not a tagged batch
+     */
+    public static String id(String value) {
+        if (!value.startsWith(PREFIX) || value.length() == PREFIX.length()) return null;
+        int separator = separator(value, PREFIX.length());
+        if (value.charAt(separator) != '#') return null;
+        return value.substring(separator + 1, end(value, PREFIX.length()));
+    }
+
+    /**
+     * @return  index of the ':' or '#' ending the length of the field at `position`
+     */
+    private static int separator(String value, int position) {
+        int separator = position;
+        while (separator < value.length() && Character.isDigit(value.charAt(separator))) separator++;
+        if (separator == position || separator == value.length()
+                || (value.charAt(separator) != ':' && value.charAt(separator) != '#')) {
+            throw new IllegalArgumentException("Malformed batch: " + value);
+        }
+        return separator;
+    }
+
+    /**
+     * @return  index just past the field at `position`
+     */
+    private static int end(String value, int position) {
+        int separator = separator(value, position);
+        long end = separator + 1 + Long.parseLong(value.substring(position, separator));
+        if (end > value.length()) throw new IllegalArgumentException("Malformed batch: " + value);
+        return (int) end;
+    }
+}
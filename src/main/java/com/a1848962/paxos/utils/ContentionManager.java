@@ -0,0 +1,40 @@
+package com.a1848962.paxos.utils;
+
+/**
+ * Decides how long a proposer waits before retrying after losing a round to a competing proposer, so that concurrent
+ * proposers stop pre-empting each other's proposal numbers. The implementation is selected with the `contention`
+ * property in member.properties.
+ */
+public interface ContentionManager {
+
+    /**
+     * Called each time a round is lost (rejected by a higher proposal, or timed out).
+     *
+     * @return  time in ms to wait before starting the next round
+     */
+    long backoff();
+
+    /**
+     * Called when a round succeeds, so the next contention starts from the shortest delay again.
+     */
+    void reset();
+
+    /**
+     * Returns the contention manager with the given name.
+     *
+     * @param name      one of: backoff, fixed
+     * @param config    configuration of the proposing member
+     * @param rank      position of the member among all proposers ordered by member ID, 0 for the lowest ID
+     * @return          the matching contention manager
+     */
+    static ContentionManager forName(String name, MemberConfig config, int rank) {
+        switch (name.trim().toLowerCase()) {
+            case "backoff":
+                return new BackoffContentionManager(config.backoffBase, config.backoffMax, rank);
+            case "fixed":
+                return new FixedContentionManager(config.backoffBase);
+            default:
+                throw new IllegalArgumentException("Unknown contention manager: " + name + ". Expected one of: backoff, fixed");
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.a1848962.paxos.utils;
+
+/**
+ * Always waits the same time before retrying. Competing proposers that start together keep retrying together, so
+ * this is mostly useful as a baseline for BackoffContentionManager.
+ */
+public class FixedContentionManager implements ContentionManager {
+    private final long delay;
+
+    public FixedContentionManager(long delay) {
+        this.delay = delay;
+    }
+
+    @Override
+    public long backoff() {
+        return delay;
+    }
+
+    @Override
+    public void reset() {}
+}
@@ -0,0 +1,62 @@
+package com.a1848962.paxos.utils;
+
+import java.util.*;
+
+/**
+ * Tracks how quickly each member replies, as an exponentially weighted moving average of observed round trip times.
+ * A member that fails to reply is charged a penalty sample, so an unhealthy member drifts to the back of the order
+ * and recovers gradually once it replies again. Used by thrifty proposers to pick the quorum they send to.
+ */
+public class LatencyTracker {
+    static final double ALPHA = 0.2; // weight of the newest sample
+    static final long FAILURE_PENALTY = 1000; // sample in ms recorded for a missed reply
+    static final long MIN_DEADLINE = 10;
+    static final long MAX_DEADLINE = 1000;
+
+    private final Map<String, Double> averages = new HashMap<>(); // memberID -> average in ms, guarded by this
+
+    /**
+     * @param memberID  member that replied
+     * @param millis    round trip time of the reply
+     */
+    public synchronized void record(String memberID, double millis) {
+        Double average = averages.get(memberID);
+        averages.put(memberID, average == null ? millis : average + ALPHA * (millis - average));
+    }
+
+    /**
+     * @param memberID  member that did not reply in time, or at all
+     */
+    public void recordFailure(String memberID) {
+        record(memberID, FAILURE_PENALTY);
+    }
+
+    /**
+     * @return  average round trip time of the member in ms, or 0 if it has not been measured yet
+     */
+    public synchronized double average(String memberID) {
+        return averages.getOrDefault(memberID, 0.0);
+    }
+
+    /**
+     * @param members   members to order
+     * @return          the members, fastest first. Unmeasured members come first so they get measured
+     */
+    public synchronized List<MemberConfig.MemberInfo> fastestFirst(Collection<MemberConfig.MemberInfo> members) {
+        List<MemberConfig.MemberInfo> ordered = new ArrayList<>(members);
+        ordered.sort(Comparator.comparingDouble(member -> averages.getOrDefault(member.id, 0.0))); // stable for ties
+        return ordered;
+    }
+
+    /**
+     * @param targets   members a message has been sent to
+     * @return          time in ms after which the slowest of them is overdue: twice its average plus a margin
+     */
+    public synchronized long deadline(Collection<MemberConfig.MemberInfo> targets) {
+        double slowest = 0;
+        for (MemberConfig.MemberInfo target : targets) {
+            slowest = Math.max(slowest, averages.getOrDefault(target.id, 0.0));
+        }
+        return Math.max(MIN_DEADLINE, Math.min(MAX_DEADLINE, (long) (2 * slowest) + MIN_DEADLINE));
+    }
+}
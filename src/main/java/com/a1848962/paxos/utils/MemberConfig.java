@@ -2,8 +2,7 @@ package com.a1848962.paxos.utils;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Properties;
-import java.util.HashMap;
+import java.util.*;
 
 /**
  * Class to store member configuration values parsed from member.properties. Also stores a map containing information
@@ -17,12 +16,34 @@ public class MemberConfig {
     public final boolean isAcceptor;
     public final boolean isProposer;
     public long maxDelay;
-    public final double reliability;
+    public double reliability;
     public final double chanceSheoak;
     public final double chanceCoorong;
+    public final int workerThreads; // threads handling incoming messages
+    public final int workerQueue; // incoming messages that may wait for a worker before being rejected
+    public int batchSize; // maximum number of submitted values proposed together in one slot
+    public long batchDelay; // time in ms a proposer waits for more values before proposing a batch
+    public int pipelineWindow; // maximum number of slots a proposer has in phase two at once
+    public boolean notifyLearners; // acceptors send ACCEPTED to learners, which then detect chosen values themselves
+    public int leaseDuration; // time in ms a leader lease lasts after a round completes, 0 disables leases
+    public int leaseDrift; // time in ms by which a leader shortens its leases, to allow for clock drift
+    public final String contention; // contention manager deciding how long a proposer backs off after losing a round
+    public long backoffBase; // shortest backoff in ms after losing a round
+    public long backoffMax; // longest backoff in ms after losing a round
+    public int phaseOneQuorum; // PROMISEs a proposer needs to become leader
+    public int phaseTwoQuorum; // ACCEPTs needed for a value to be chosen
+    public boolean thrifty; // proposers send phase messages to a quorum of the fastest acceptors only
+    public int groups; // number of independent Paxos groups the member starts with, numbered from 0
+    public boolean mencius; // log slots are owned round-robin by the proposers, each committing its own slots
+    public String durability; // how acceptor state is persisted before replying: none, write or fsync
+    public String storageDir; // directory holding each member's persisted state, in a subdirectory per member
+    public String storage; // how persisted state is stored: mmap (memory-mapped segments) or file
+    public int snapshotInterval; // learned slots between snapshots, after which state below the snapshot is compacted
+    public int catchupChunk; // most characters of values a learner sends in one catch-up reply
 
     // map to hold connection info of all members: key = memberID, value = MemberInfo
     public HashMap<String, MemberInfo> networkInfo;
+    public final List<String> proposerIDs; // IDs of all proposers, ordered by member number
 
     /**
      * Class to hold critical information (id, roles, address, and port) for other members in the network.
@@ -43,6 +64,23 @@ public class MemberConfig {
             this.address = address;
             this.port = port;
         }
+
+        /**
+         * Two MemberInfo objects are equal if they describe the same endpoint. Each member parses its own copy of
+         * member.properties, so identity cannot be used when MemberInfo is a map key (e.g. in ConnectionPool).
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MemberInfo)) return false;
+            MemberInfo other = (MemberInfo) o;
+            return port == other.port && id.equals(other.id) && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, address, port);
+        }
     }
 
     /**
@@ -68,7 +106,26 @@ public class MemberConfig {
                 "max_delay.default",
                 "reliability.default",
                 "sheoak.default",
-                "coorong.default"
+                "coorong.default",
+                "worker_threads.default",
+                "worker_queue.default",
+                "batch_size.default",
+                "batch_delay.default",
+                "pipeline_window.default",
+                "notify_learners.default",
+                "lease_duration.default",
+                "lease_drift.default",
+                "contention.default",
+                "backoff_base.default",
+                "backoff_max.default",
+                "thrifty.default",
+                "groups.default",
+                "mencius.default",
+                "durability.default",
+                "storage_dir.default",
+                "storage.default",
+                "snapshot_interval.default",
+                "catchup_chunk.default"
         };
         for (String key : defaultKeys) {
             if (!properties.containsKey(key)) {
@@ -120,6 +177,13 @@ public class MemberConfig {
             this.networkInfo.put(thisMember, new MemberInfo(thisMember, tempLearner, tempAcceptor, tempProposer, tempAddress, tempPort));
         }
 
+        List<String> proposers = new ArrayList<>();
+        for (MemberInfo memberInfo : networkInfo.values()) {
+            if (memberInfo.isProposer) proposers.add(memberInfo.id);
+        }
+        proposers.sort(Comparator.comparingInt(id -> Integer.parseInt(id.substring(1))));
+        this.proposerIDs = Collections.unmodifiableList(proposers);
+
         // parse properties
         this.memberID = memberID;
         this.address = properties.getProperty(memberID + ".address", properties.getProperty("address.default"));
@@ -128,12 +192,68 @@ public class MemberConfig {
         this.reliability = Double.parseDouble(properties.getProperty(memberID + ".reliability", properties.getProperty("reliability.default")));
         this.chanceSheoak = Double.parseDouble(properties.getProperty(memberID + ".sheoak", properties.getProperty("sheoak.default")));
         this.chanceCoorong = Double.parseDouble(properties.getProperty(memberID + ".coorong", properties.getProperty("coorong.default")));
+        this.workerThreads = Integer.parseInt(properties.getProperty(memberID + ".worker_threads", properties.getProperty("worker_threads.default")));
+        this.workerQueue = Integer.parseInt(properties.getProperty(memberID + ".worker_queue", properties.getProperty("worker_queue.default")));
+        this.batchSize = Integer.parseInt(properties.getProperty(memberID + ".batch_size", properties.getProperty("batch_size.default")));
+        this.batchDelay = Long.parseLong(properties.getProperty(memberID + ".batch_delay", properties.getProperty("batch_delay.default")));
+        this.pipelineWindow = Integer.parseInt(properties.getProperty(memberID + ".pipeline_window", properties.getProperty("pipeline_window.default")));
+        this.notifyLearners = Boolean.parseBoolean(properties.getProperty(memberID + ".notify_learners", properties.getProperty("notify_learners.default")));
+        this.leaseDuration = Integer.parseInt(properties.getProperty(memberID + ".lease_duration", properties.getProperty("lease_duration.default")));
+        this.leaseDrift = Integer.parseInt(properties.getProperty(memberID + ".lease_drift", properties.getProperty("lease_drift.default")));
+        this.contention = properties.getProperty(memberID + ".contention", properties.getProperty("contention.default"));
+        this.backoffBase = Long.parseLong(properties.getProperty(memberID + ".backoff_base", properties.getProperty("backoff_base.default")));
+        this.backoffMax = Long.parseLong(properties.getProperty(memberID + ".backoff_max", properties.getProperty("backoff_max.default")));
+        this.thrifty = Boolean.parseBoolean(properties.getProperty(memberID + ".thrifty", properties.getProperty("thrifty.default")));
+        this.groups = Integer.parseInt(properties.getProperty(memberID + ".groups", properties.getProperty("groups.default")));
+        if (this.groups < 1) throw new IllegalArgumentException("groups must be at least 1, got " + this.groups);
+        this.mencius = Boolean.parseBoolean(properties.getProperty(memberID + ".mencius", properties.getProperty("mencius.default")));
+        this.durability = properties.getProperty(memberID + ".durability", properties.getProperty("durability.default"));
+        this.storageDir = properties.getProperty(memberID + ".storage_dir", properties.getProperty("storage_dir.default"));
+        this.storage = properties.getProperty(memberID + ".storage", properties.getProperty("storage.default"));
+        this.snapshotInterval = Integer.parseInt(properties.getProperty(memberID + ".snapshot_interval", properties.getProperty("snapshot_interval.default")));
+        this.catchupChunk = Integer.parseInt(properties.getProperty(memberID + ".catchup_chunk", properties.getProperty("catchup_chunk.default")));
         this.isProposer = Boolean.parseBoolean(properties.getProperty(memberID + ".proposer", properties.getProperty("proposer.default")));
         this.isAcceptor = Boolean.parseBoolean(properties.getProperty(memberID + ".acceptor", properties.getProperty("acceptor.default")));
         this.isLearner = Boolean.parseBoolean(properties.getProperty(memberID + ".learner", properties.getProperty("learner.default")));
         if (!this.isLearner && !this.isAcceptor && !this.isProposer) {
             throw new RuntimeException("Member " + memberID + " has no role.");
         }
+
+        // quorums are counted over the acceptors only (Flexible Paxos): every phase one quorum must intersect every
+        // phase two quorum, so a new leader always finds any value that may have been chosen
+        int acceptors = 0;
+        for (MemberInfo memberInfo : networkInfo.values()) {
+            if (memberInfo.isAcceptor) acceptors++;
+        }
+        this.phaseOneQuorum = parseQuorum(properties, "quorum.phase1", acceptors);
+        this.phaseTwoQuorum = parseQuorum(properties, "quorum.phase2", acceptors);
+        if (phaseOneQuorum + phaseTwoQuorum <= acceptors) {
+            throw new IllegalArgumentException("quorum.phase1 (" + phaseOneQuorum + ") + quorum.phase2 (" + phaseTwoQuorum
+                    + ") must be greater than the number of acceptors (" + acceptors + ")");
+        }
+    }
+
+    /**
+     * @param key           property holding the quorum size, 0 or absent for a majority
+     * @param acceptors     number of acceptors in the network
+     * @return              the quorum size
+     */
+    private static int parseQuorum(Properties properties, String key, int acceptors) {
+        int quorum = Integer.parseInt(properties.getProperty(key, "0").trim());
+        if (quorum == 0) return acceptors / 2 + 1;
+        if (quorum < 0 || quorum > acceptors) {
+            throw new IllegalArgumentException(key + " must be between 1 and the number of acceptors (" + acceptors + ")");
+        }
+        return quorum;
+    }
+
+    /**
+     * @param slot  a log slot
+     * @return      ID of the proposer that owns the slot when mencius is set: slots are assigned round-robin in
+     *              member number order
+     */
+    public String slotOwner(int slot) {
+        return proposerIDs.get(slot % proposerIDs.size());
     }
 
     @Override
@@ -8,13 +8,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Class to provide object type representing a proposal. Requires a proposal number and value to instantiate.
+ * Class to provide object type representing a proposal. Requires a proposal number and log slot to instantiate. A
+ * phase one proposal covers its slot and every later slot, a phase two proposal covers its slot only.
  * Written with the assistance of AI.
  */
 public class Proposal {
     public String value;
+    public long sentAt; // System.nanoTime() when ACCEPT_REQ was sent, start of any lease granted by the round
+    public ScheduledFuture<?> timeout; // retry timer for the round, cancelled once the round ends
 
-    private final int proposalNumber;
+    private final long proposalNumber; // ballot, see Ballot
+    private final int slot;
     private final ConcurrentHashMap<String, Message> promises = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Message> accepts = new ConcurrentHashMap<>();
     private final AtomicInteger rejectCount = new AtomicInteger(0);
@@ -22,14 +26,19 @@ public class Proposal {
     private final AtomicBoolean phaseOneCompleted = new AtomicBoolean(false);
     private final AtomicBoolean phaseTwoCompleted = new AtomicBoolean(false);
 
-    public Proposal(int proposalNumber) {
+    public Proposal(long proposalNumber, int slot) {
         this.proposalNumber = proposalNumber;
+        this.slot = slot;
     }
 
-    public int getProposalNumber() {
+    public long getProposalNumber() {
         return proposalNumber;
     }
 
+    public int getSlot() {
+        return slot;
+    }
+
     public void addPromise(Message promise) {
         promises.put(promise.senderID, promise);
     }
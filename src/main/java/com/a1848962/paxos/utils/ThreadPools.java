@@ -0,0 +1,188 @@
+package com.a1848962.paxos.utils;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the executors used across the implementation. Every pool has a fixed number of named threads and, where
+ * tasks can queue, a bounded queue. When a bounded pool is full, execute() throws RejectedExecutionException, so the
+ * caller can respond to overload (e.g. by sending a REJECT) instead of the JVM creating threads without limit.
+ * <p>
+ * Setting threads=virtual in member.properties (or -Dpaxos.threads=virtual) runs the bounded pools on virtual threads
+ * instead, on a JDK that supports them (21+). The blocking handlers then each get their own cheap thread, so up to
+ * threads + queue tasks run at once rather than waiting for a platform thread. Virtual threads are created
+ * reflectively so the code still builds for Java 8; on an older JDK the platform pools are used.
+ */
+public class ThreadPools {
+    private static final SimpleLogger log = new SimpleLogger("THREADS");
+    private static volatile boolean warnedUnavailable = false;
+
+    private ThreadPools() {}
+
+    /**
+     * Creates threads named `name-1`, `name-2`, ... so pools can be identified in thread dumps.
+     */
+    public static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final boolean daemon;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public NamedThreadFactory(String name, boolean daemon) {
+            this.name = name;
+            this.daemon = daemon;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(daemon);
+            return thread;
+        }
+    }
+
+    /**
+     * Runs each task on a new virtual thread, admitting at most a fixed number of tasks at a time.
+     */
+    private static final class VirtualThreadExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        VirtualThreadExecutor(ExecutorService delegate, int limit) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(limit);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!permits.tryAcquire()) throw new RejectedExecutionException("Virtual thread limit reached");
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                permits.release();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * @return  true if bounded pools should run on virtual threads (threads=virtual)
+     */
+    public static boolean virtualThreadsEnabled() {
+        String mode = System.getProperty("paxos.threads", MemberConfig.getProperties().getProperty("threads", "platform"));
+        return mode.trim().equalsIgnoreCase("virtual");
+    }
+
+    /**
+     * Creates a pool for blocking tasks. Uses virtual threads if enabled and supported (see class comment), admitting
+     * up to threads + queueSize tasks at once, and otherwise a platform pool of up to `threads` threads with a queue of
+     * at most `queueSize` waiting tasks. Either way, submitting to a full pool throws RejectedExecutionException.
+     *
+     * @param name          thread name prefix
+     * @param threads       maximum number of (platform) threads
+     * @param queueSize     maximum number of tasks waiting for a thread
+     * @return              the executor
+     */
+    public static ExecutorService bounded(String name, int threads, int queueSize) {
+        if (virtualThreadsEnabled()) {
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor(name);
+            if (virtual != null) return new VirtualThreadExecutor(virtual, threads + queueSize);
+        }
+        return platform(name, threads, queueSize);
+    }
+
+    /**
+     * Creates a platform thread pool of up to `threads` threads with a queue of at most `queueSize` waiting tasks.
+     * Idle threads are released after a minute. Submitting to a full pool throws RejectedExecutionException.
+     *
+     * @param name          thread name prefix
+     * @param threads       maximum number of threads
+     * @param queueSize     maximum number of tasks waiting for a thread
+     * @return              the executor
+     */
+    public static ThreadPoolExecutor platform(String name, int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), new NamedThreadFactory(name, true), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Equivalent to Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory()), called
+     * reflectively. This function written with the assistance of AI.
+     *
+     * @param name      thread name prefix
+     * @return          the executor, or null if this JDK has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            if (!warnedUnavailable) {
+                warnedUnavailable = true;
+                log.warn("Virtual threads are not available on Java " + System.getProperty("java.version") + ", using platform threads");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Creates a scheduler with a fixed number of named threads.
+     *
+     * @param name          thread name prefix
+     * @param threads       number of threads
+     * @return              the scheduler
+     */
+    public static ScheduledExecutorService scheduled(String name, int threads) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads, new NamedThreadFactory(name, true));
+        scheduler.setRemoveOnCancelPolicy(true); // cancelled timeouts should not pile up in the queue
+        return scheduler;
+    }
+
+    /**
+     * Creates a single named thread for a long running task (e.g. reading stdin).
+     *
+     * @param name          thread name
+     * @return              the executor
+     */
+    public static ExecutorService single(String name) {
+        return Executors.newSingleThreadExecutor(new NamedThreadFactory(name, true));
+    }
+}
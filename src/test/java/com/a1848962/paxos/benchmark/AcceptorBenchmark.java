@@ -0,0 +1,97 @@
+package com.a1848962.paxos.benchmark;
+
+import com.a1848962.paxos.network.Message;
+import com.a1848962.paxos.network.Network;
+import com.a1848962.paxos.roles.Acceptor;
+import com.a1848962.paxos.roles.Member;
+import com.a1848962.paxos.utils.Ballot;
+import com.a1848962.paxos.utils.MemberConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how acceptor throughput scales with the number of handler threads. Each client thread calls the acceptor's
+ * handlers directly, as the network's worker threads do, sending ACCEPT_REQs for its own slots and every 16th request
+ * a PREPARE_REQ, so phase one and phase two contend for the acceptor's state. Simulated delays and message loss are
+ * off and nothing is persisted, so the acceptor's own synchronisation is all that is measured. Run with
+ * `make benchmark-acceptor`.
+ * <p>
+ * Arguments (optional): largest number of client threads (default 2 per core), duration of each run in ms (default
+ * 2000).
+ */
+public class AcceptorBenchmark {
+    private static final int PREPARE_EVERY = 16; // one request in this many is a PREPARE_REQ
+    private static final int COMPACT_EVERY = 1 << 16; // slots each client sends between compactions, so state stays bounded
+
+    public static void main(String[] args) throws Exception {
+        int maxClients = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        long duration = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        System.out.println("Sending ACCEPT_REQ and PREPARE_REQ to one acceptor for " + duration + "ms per run, "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+        run(1, duration); // warm up
+        for (int clients = 1; clients <= maxClients; clients *= 2) {
+            run(clients, duration);
+        }
+    }
+
+    private static void run(int clients, long duration) throws Exception {
+        MemberConfig config = new MemberConfig("M4");
+        config.durability = "none";
+        config.reliability = 1;
+        config.maxDelay = 0;
+        config.notifyLearners = false;
+        config.leaseDuration = 0;
+        Member member = new Member(config);
+        member.silence();
+        Acceptor acceptor = new Acceptor(member, 0);
+        acceptor.silence();
+
+        long ballot = Ballot.of(1, 1);
+        AtomicLong requests = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicIntegerArray progress = new AtomicIntegerArray(clients); // next slot of each client
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long deadline = System.nanoTime() + duration * 1_000_000;
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            done.add(CompletableFuture.runAsync(() -> {
+                Member.AcceptorRole role = acceptor;
+                Network.Responder count = response -> {
+                    if (response.type.equals("REJECT")) rejected.incrementAndGet();
+                };
+                long sent = 0;
+                for (int slot = client; System.nanoTime() - deadline < 0; slot += clients) {
+                    if (++sent % PREPARE_EVERY == 0) {
+                        role.handlePrepareRequest(Message.prepareRequest(ballot, "M1", slot), count);
+                    } else {
+                        role.handleAcceptRequest(Message.acceptRequest(ballot, "M1", slot, "value-" + slot), count);
+                    }
+                    progress.lazySet(client, slot);
+                    if (client == 0 && sent % COMPACT_EVERY == 0) {
+                        int slowest = slot;
+                        for (int i = 0; i < clients; i++) slowest = Math.min(slowest, progress.get(i));
+                        role.compact(slowest - clients); // below every client's next slot, so nothing is rejected
+                    }
+                }
+                requests.addAndGet(sent);
+            }, executor));
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        acceptor.shutdown();
+        member.shutdown();
+
+        System.out.printf("%3d clients: %10.0f requests/s, %d rejected%n", clients, requests.get() / seconds, rejected.get());
+    }
+}
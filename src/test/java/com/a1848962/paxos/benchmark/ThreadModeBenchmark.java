@@ -0,0 +1,92 @@
+package com.a1848962.paxos.benchmark;
+
+import com.a1848962.paxos.network.ConnectionPool;
+import com.a1848962.paxos.network.Message;
+import com.a1848962.paxos.network.Network;
+import com.a1848962.paxos.utils.MemberConfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares message throughput with handlers on platform threads and on virtual threads. A Network is started with the
+ * default worker pool size and a handler that blocks for a fixed time (like the simulated delays in Acceptor), then a
+ * burst of requests is sent to it over one pooled connection and the time until all responses arrive is measured.
+ * Run with `make benchmark`, on JDK 21+ for the virtual thread figures.
+ * <p>
+ * Arguments (optional): number of messages (default 2000), handler delay in ms (default 10).
+ */
+public class ThreadModeBenchmark {
+    private static final int BASE_PORT = 5100;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long handlerDelay = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+        MemberConfig config = new MemberConfig("M1"); // for the configured worker pool size
+        System.out.println("Sending " + messages + " messages to a handler blocking for " + handlerDelay + "ms, "
+                + config.workerThreads + " worker threads");
+
+        String[] modes = {"platform", "virtual"};
+        for (int i = 0; i < modes.length; i++) {
+            System.setProperty("paxos.threads", modes[i]);
+            if (modes[i].equals("virtual") && !supportsVirtualThreads()) {
+                System.out.println("virtual:  skipped, requires Java 21+ (running " + System.getProperty("java.version") + ")");
+                continue;
+            }
+            run(modes[i], BASE_PORT + i, config.workerThreads, messages, handlerDelay);
+        }
+    }
+
+    private static void run(String mode, int port, int workerThreads, int messages, long handlerDelay) throws Exception {
+        // the queue admits the whole burst, so platform threads queue work while virtual threads run it all at once
+        Network network = new Network("M0", port, workerThreads, messages, (message, responder) -> {
+            try {
+                Thread.sleep(handlerDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responder.respond(Message.ack("M0"));
+        });
+        network.silence();
+        network.start();
+
+        ConnectionPool pool = new ConnectionPool();
+        MemberConfig.MemberInfo target = new MemberConfig.MemberInfo("M0", true, true, false, "localhost", port);
+        byte[] payload = Message.learn(1, "M1", "M1").marshall();
+        pool.request(target, payload).get(); // open the connection before timing
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<byte[]>> responses = new ArrayList<>(messages);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            responses.add(pool.request(target, payload).whenComplete((r, ex) -> {
+                if (ex != null) failed.incrementAndGet(); // timed out waiting for a worker
+            }));
+        }
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).handle((r, ex) -> null).join();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("%-9s %6d ms, %8.0f msg/s, %d failed, peak %d platform threads%n", mode + ":", elapsed,
+                (messages - failed.get()) * 1000.0 / Math.max(elapsed, 1), failed.get(), threads.getPeakThreadCount());
+
+        pool.closeAll();
+        network.shutdown();
+    }
+
+    private static boolean supportsVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+}
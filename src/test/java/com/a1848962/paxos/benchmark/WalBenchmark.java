@@ -0,0 +1,69 @@
+package com.a1848962.paxos.benchmark;
+
+import com.a1848962.paxos.network.Message;
+import com.a1848962.paxos.storage.LogEntry;
+import com.a1848962.paxos.storage.LogStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures what the acceptor's write-ahead log costs. Each client thread repeatedly appends an ACCEPT entry and waits
+ * for it to be durable, as an acceptor does before replying to each ACCEPT_REQ, so every completed append is one
+ * decision's worth of acceptor work. Reports decisions per second against fsyncs per second for each durability
+ * level and storage implementation: with one client every decision needs its own fsync, while concurrent clients share
+ * them (group commit). Run with `make benchmark-wal`.
+ * <p>
+ * Arguments (optional): number of concurrent clients (default 16), duration of each run in ms (default 2000).
+ */
+public class WalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long duration = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        Path directory = Files.createTempDirectory("wal-benchmark");
+        System.out.println("Appending ACCEPT entries for " + duration + "ms per run, log in " + directory);
+        run("mmap", "none", 1, duration, directory);
+        for (String storage : new String[]{"file", "mmap"}) {
+            run(storage, "write", 1, duration, directory);
+            run(storage, "write", clients, duration, directory);
+            run(storage, "fsync", 1, duration, directory);
+            run(storage, "fsync", clients, duration, directory);
+        }
+    }
+
+    private static void run(String storage, String durability, int clients, long duration, Path directory) throws Exception {
+        LogStore store = LogStore.open(storage, durability, directory.resolve(storage + "-" + durability + "-" + clients));
+        AtomicInteger decisions = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long deadline = System.nanoTime() + duration * 1_000_000;
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            String proposerID = "M" + (c + 1);
+            done.add(CompletableFuture.runAsync(() -> {
+                for (int slot = 0; System.nanoTime() - deadline < 0; slot++) {
+                    store.append(LogEntry.accept(new Message.SlotValue(slot, slot, proposerID, "value-" + slot))).join();
+                    decisions.incrementAndGet();
+                }
+            }, executor));
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        store.close();
+
+        long syncs = store.syncs();
+        System.out.printf("%-5s %-6s %3d clients: %9.0f decisions/s, %7.0f fsyncs/s, %6.1f decisions per fsync%n",
+                storage, durability, clients, decisions.get() / seconds, syncs / seconds,
+                syncs == 0 ? 0.0 : decisions.get() / (double) syncs);
+    }
+}
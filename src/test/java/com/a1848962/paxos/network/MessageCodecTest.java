@@ -0,0 +1,142 @@
+package com.a1848962.paxos.network;
+
+import com.a1848962.paxos.utils.Ballot;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+    private final MessageCodec[] codecs = {new BinaryCodec(), new JsonCodec()};
+
+    /**
+     * Encodes and decodes message with every codec and checks all serialised fields survive the round trip
+     */
+    private void assertRoundTrip(Message message) {
+        for (MessageCodec codec : codecs) {
+            String name = codec.getClass().getSimpleName();
+            Message decoded = codec.decode(codec.encode(message));
+
+            assertEquals(message.type, decoded.type, name + " should preserve type");
+            assertEquals(message.proposalNumber, decoded.proposalNumber, name + " should preserve proposalNumber");
+            assertEquals(message.senderID, decoded.senderID, name + " should preserve senderID");
+            assertEquals(message.value, decoded.value, name + " should preserve value");
+            assertEquals(message.highestPromisedProposal, decoded.highestPromisedProposal, name + " should preserve highestPromisedProposal");
+            assertEquals(message.acceptedValue, decoded.acceptedValue, name + " should preserve acceptedValue");
+            assertEquals(message.slot, decoded.slot, name + " should preserve slot");
+            assertEquals(message.lease, decoded.lease, name + " should preserve lease");
+            assertEquals(message.group, decoded.group, name + " should preserve group");
+            if (message.accepted == null) {
+                assertNull(decoded.accepted, name + " should not add accepted values");
+            } else {
+                assertEquals(message.accepted.size(), decoded.accepted.size(), name + " should preserve accepted values");
+                for (int i = 0; i < message.accepted.size(); i++) {
+                    Message.SlotValue expected = message.accepted.get(i);
+                    Message.SlotValue actual = decoded.accepted.get(i);
+                    assertEquals(expected.slot, actual.slot, name + " should preserve accepted slot");
+                    assertEquals(expected.proposalNumber, actual.proposalNumber, name + " should preserve accepted proposal number");
+                    assertEquals(expected.proposerID, actual.proposerID, name + " should preserve accepted proposer");
+                    assertEquals(expected.value, actual.value, name + " should preserve accepted value");
+                }
+            }
+        }
+    }
+
+    @Test
+    void testPhaseOneMessages() {
+        assertRoundTrip(Message.prepareRequest(7, "M3"));
+        assertRoundTrip(Message.promise(7, "M4"));
+        assertRoundTrip(Message.promise(7, "M4", 5, "M2"));
+    }
+
+    @Test
+    void testPhaseTwoMessages() {
+        assertRoundTrip(Message.acceptRequest(12, "M1", "M1"));
+        assertRoundTrip(Message.accept(12, "M9", "M1"));
+        assertRoundTrip(Message.reject(12, "M9", 15));
+        assertRoundTrip(Message.reject(12, "M9", 15, "M3"));
+    }
+
+    @Test
+    void testLogMessages() {
+        assertRoundTrip(Message.prepareRequest(4, "M2", 17));
+        assertRoundTrip(Message.promise(4, "M5", 17, Collections.emptyList()));
+        assertRoundTrip(Message.promise(4, "M5", 17, Arrays.asList(
+                new Message.SlotValue(17, 3, "M1", "M1"),
+                new Message.SlotValue(19, 2, "client", Message.NOOP))));
+        assertRoundTrip(Message.acceptRequest(4, "M2", 300, "M8"));
+        assertRoundTrip(Message.accept(4, "M6", 300, "M8"));
+        assertRoundTrip(Message.learn(4, "M2", 300, "M8"));
+        assertRoundTrip(Message.accepted("M6", new Message.SlotValue(300, 4, "M2", "M8")));
+    }
+
+    @Test
+    void testLeaseMessages() {
+        Message acceptRequest = Message.acceptRequest(4, "M2", 300, "M8");
+        acceptRequest.lease = 2000;
+        assertRoundTrip(acceptRequest);
+        assertRoundTrip(Message.readRequest("M5"));
+        assertRoundTrip(Message.read("M2", "BATCH:2:M12:M2"));
+    }
+
+    @Test
+    void testGroupMessages() {
+        Message prepare = Message.prepareRequest(4, "M2", 17);
+        prepare.group = 3;
+        assertRoundTrip(prepare);
+        Message learn = Message.learn(4, "M2", 300, "M8");
+        learn.group = 1 << 20;
+        assertRoundTrip(learn);
+    }
+
+    @Test
+    void testCatchupMessages() {
+        assertRoundTrip(Message.catchupRequest("M9", 0, 0));
+        assertRoundTrip(Message.catchupRequest("M9", 40, 1 << 20));
+        assertRoundTrip(Message.catchupSnapshot("M4", 1000, 250, 700, "BATCH:2:M12:M2"));
+        assertRoundTrip(Message.catchupTail("M4", 1000, Arrays.asList(
+                new Message.SlotValue(1000, -1, "M4", "M1"),
+                new Message.SlotValue(1002, -1, "M4", Message.NOOP)), 5));
+        assertRoundTrip(Message.catchupTail("M4", 1000, Collections.emptyList(), 0));
+    }
+
+    @Test
+    void testLearnMessages() {
+        assertRoundTrip(Message.learn(3, "M2", "M2"));
+        assertRoundTrip(Message.ack("M5"));
+        assertRoundTrip(Message.nack("M6"));
+    }
+
+    @Test
+    void testEdgeCaseFields() {
+        // large numbers, literal sender IDs, and non-ASCII values
+        assertRoundTrip(Message.promise(Integer.MAX_VALUE, "M123456", Integer.MIN_VALUE, "Zo\u00eb"));
+        assertRoundTrip(Message.learn(0, "client", ""));
+        assertRoundTrip(Message.accept(1, "M01", null));
+        assertRoundTrip(Message.reject(Ballot.of(Integer.MAX_VALUE, 9), "M4", Long.MIN_VALUE));
+        assertRoundTrip(Message.promise(Ballot.of(3, 2), "M5", 0, Collections.singletonList(
+                new Message.SlotValue(0, Ballot.of(2, 1), "M1", "M1"))));
+    }
+
+    @Test
+    void testBinaryIsSmallerThanJson() {
+        Message message = Message.promise(42, "M4", 40, "M2");
+        int binarySize = new BinaryCodec().encode(message).length;
+        int jsonSize = new JsonCodec().encode(message).length;
+        assertTrue(binarySize < jsonSize / 4, "Binary encoding (" + binarySize + " bytes) should be far smaller than JSON (" + jsonSize + " bytes)");
+    }
+
+    @Test
+    void testBinaryInternsMemberIDs() {
+        BinaryCodec codec = new BinaryCodec();
+        Message first = codec.decode(codec.encode(Message.ack("M7")));
+        Message second = codec.decode(codec.encode(Message.ack("M7")));
+        assertSame(first.senderID, second.senderID, "Decoded member IDs should share one String instance");
+    }
+
+    @Test
+    void testUnknownCodecThrowsException() {
+        assertThrows(IllegalArgumentException.class, () -> MessageCodec.forName("xml"));
+    }
+}
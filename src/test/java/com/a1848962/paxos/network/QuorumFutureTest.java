@@ -0,0 +1,75 @@
+package com.a1848962.paxos.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuorumFutureTest {
+
+    private QuorumFuture promiseQuorum(int quorum, int recipients) {
+        return new QuorumFuture(quorum, recipients, reply -> reply.type.equals("PROMISE"));
+    }
+
+    @Test
+    void testCompletesOnFastestMajorityAndCancelsStragglers() throws Exception {
+        QuorumFuture quorum = promiseQuorum(2, 3);
+        CompletableFuture<Message> first = new CompletableFuture<>();
+        CompletableFuture<Message> second = new CompletableFuture<>();
+        CompletableFuture<Message> straggler = new CompletableFuture<>();
+        quorum.track(first);
+        quorum.track(second);
+        quorum.track(straggler);
+
+        first.complete(Message.promise(1, "M1"));
+        assertFalse(quorum.isDone(), "One promise should not complete a quorum of two");
+        second.complete(Message.promise(1, "M2"));
+
+        List<Message> promises = quorum.get();
+        assertEquals(2, promises.size(), "Quorum should complete with the two matching replies");
+        assertTrue(straggler.isCancelled(), "Outstanding request should be cancelled once quorum is reached");
+    }
+
+    @Test
+    void testFailsOnceQuorumIsImpossible() {
+        QuorumFuture quorum = promiseQuorum(2, 3);
+        CompletableFuture<Message> reject = new CompletableFuture<>();
+        CompletableFuture<Message> failed = new CompletableFuture<>();
+        CompletableFuture<Message> outstanding = new CompletableFuture<>();
+        quorum.track(reject);
+        quorum.track(failed);
+        quorum.track(outstanding);
+
+        reject.complete(Message.reject(1, "M1", 5));
+        assertFalse(quorum.isDone(), "Quorum is still possible after one reject");
+        failed.complete(null); // failed send
+
+        ExecutionException ex = assertThrows(ExecutionException.class, quorum::get);
+        assertInstanceOf(QuorumFuture.QuorumUnreachableException.class, ex.getCause());
+        assertTrue(outstanding.isCancelled(), "Outstanding request should be cancelled once quorum is impossible");
+    }
+
+    @Test
+    void testShortfallCallbackRunsOnNonMatchingReply() {
+        QuorumFuture quorum = promiseQuorum(2, 4);
+        int[] shortfalls = {0};
+        quorum.onShortfall(() -> shortfalls[0]++);
+        CompletableFuture<Message> promise = new CompletableFuture<>();
+        CompletableFuture<Message> failed = new CompletableFuture<>();
+        quorum.track(promise);
+        quorum.track(failed);
+
+        promise.complete(Message.promise(1, "M1"));
+        assertEquals(0, shortfalls[0], "Matching reply should not run the shortfall callback");
+        failed.complete(null);
+        assertEquals(1, shortfalls[0], "Failed send should run the shortfall callback");
+    }
+
+    @Test
+    void testTooFewRecipientsFailsImmediately() {
+        assertTrue(promiseQuorum(3, 2).isCompletedExceptionally(), "Quorum larger than recipient count can never complete");
+    }
+}
@@ -0,0 +1,226 @@
+package com.a1848962.paxos.roles;
+
+import com.a1848962.paxos.network.Message;
+import com.a1848962.paxos.network.Network;
+import com.a1848962.paxos.storage.LogEntry;
+import com.a1848962.paxos.storage.LogStore;
+import com.a1848962.paxos.utils.Ballot;
+import com.a1848962.paxos.utils.MemberConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AcceptorTest {
+
+    @TempDir
+    Path directory;
+
+    private Member durableMember() {
+        MemberConfig config = new MemberConfig("M4");
+        config.durability = "fsync";
+        config.storageDir = directory.toString();
+        config.reliability = 1;
+        config.maxDelay = 0;
+        Member member = new Member(config);
+        member.silence();
+        return member;
+    }
+
+    private static Message request(Member.AcceptorRole acceptor, Message message) {
+        CompletableFuture<Message> response = new CompletableFuture<>();
+        if ("PREPARE_REQ".equals(message.type)) acceptor.handlePrepareRequest(message, response::complete);
+        else acceptor.handleAcceptRequest(message, response::complete);
+        return response.join();
+    }
+
+    @Test
+    void testStateSurvivesRestart() {
+        Member member = durableMember();
+        Acceptor acceptor = new Acceptor(member, 0);
+        acceptor.silence();
+        long ballot = Ballot.of(2, 1);
+        assertEquals("PROMISE", request(acceptor, Message.prepareRequest(ballot, "M1", 0)).type);
+        assertEquals("ACCEPT", request(acceptor, Message.acceptRequest(ballot, "M1", 0, "M5")).type);
+        acceptor.shutdown();
+
+        Acceptor restarted = new Acceptor(member, 0);
+        Message reject = request(restarted, Message.prepareRequest(Ballot.of(1, 2), "M2", 0));
+        assertEquals("REJECT", reject.type, "A restarted acceptor should keep its promise");
+        assertEquals(ballot, reject.highestPromisedProposal);
+
+        Message promise = request(restarted, Message.prepareRequest(Ballot.of(3, 2), "M2", 0));
+        assertEquals("PROMISE", promise.type);
+        assertEquals(1, promise.accepted.size(), "A restarted acceptor should report its accepted value");
+        assertEquals("M5", promise.accepted.get(0).value);
+        assertEquals(ballot, promise.accepted.get(0).proposalNumber);
+        restarted.shutdown();
+        member.shutdown();
+    }
+
+    @Test
+    void testHigherBallotSurvivesRestartWhenLoggedFirst() {
+        // accepts are appended after the state changes, so a later ballot's entry can reach the log first
+        for (String storage : new String[] {"file", "mmap"}) {
+            Member member = durableMember();
+            member.config.storage = storage;
+            member.config.storageDir = directory.resolve(storage).toString();
+            LogStore store = LogStore.open(storage, "fsync", Paths.get(member.config.storageDir, "M4", "acceptor-0"));
+            long higher = Ballot.of(2, 1);
+            store.append(LogEntry.promise(higher)).join();
+            store.append(LogEntry.accept(new Message.SlotValue(0, higher, "M1", "newer"))).join();
+            store.append(LogEntry.accept(new Message.SlotValue(0, Ballot.of(1, 1), "M1", "older"))).join();
+            store.close();
+
+            Acceptor restarted = new Acceptor(member, 0);
+            Message promise = request(restarted, Message.prepareRequest(Ballot.of(3, 2), "M2", 0));
+            assertEquals("PROMISE", promise.type);
+            assertEquals(1, promise.accepted.size());
+            assertEquals("newer", promise.accepted.get(0).value,
+                    storage + ": the value in the higher ballot should be recovered, whatever order it was logged in");
+            assertEquals(higher, promise.accepted.get(0).proposalNumber);
+            restarted.shutdown();
+            member.shutdown();
+        }
+    }
+
+    /**
+     * Store whose first append fails, as after a disk error, and whose later appends succeed.
+     */
+    private static class FailingLogStore implements LogStore {
+        private boolean failed = false;
+
+        @Override
+        public synchronized CompletableFuture<Void> append(LogEntry entry) {
+            if (failed) return CompletableFuture.completedFuture(null);
+            failed = true;
+            CompletableFuture<Void> write = new CompletableFuture<>();
+            write.completeExceptionally(new UncheckedIOException(new IOException("disk full")));
+            return write;
+        }
+
+        @Override
+        public List<LogEntry> recover() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void compact(int slot) {}
+
+        @Override
+        public long appends() {
+            return 0;
+        }
+
+        @Override
+        public long syncs() {
+            return 0;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Test
+    void testNoResponseAfterFailedWrite() {
+        Member member = durableMember();
+        Acceptor acceptor = new Acceptor(member, 0, new FailingLogStore());
+        acceptor.silence();
+        List<String> responses = new CopyOnWriteArrayList<>(); // types of the responses sent
+        Network.Responder record = response -> responses.add(response.type);
+        acceptor.handlePrepareRequest(Message.prepareRequest(Ballot.of(1, 1), "M1", 0), record);
+        assertTrue(responses.isEmpty(), "A promise that could not be stored should not be sent");
+
+        // later states build on the promise that was not stored, so they must not be revealed either
+        acceptor.handlePrepareRequest(Message.prepareRequest(Ballot.of(2, 1), "M1", 0), record);
+        acceptor.handleAcceptRequest(Message.acceptRequest(Ballot.of(2, 1), "M1", 0, "M5"), record);
+        acceptor.handlePrepareRequest(Message.prepareRequest(Ballot.of(1, 2), "M2", 0), record);
+        assertTrue(responses.isEmpty(), "No response should follow a failed write, got " + responses);
+        acceptor.shutdown();
+        member.shutdown();
+    }
+
+    @Test
+    void testCompactedSlotsAreSkipped() {
+        Member member = durableMember();
+        Acceptor acceptor = new Acceptor(member, 0);
+        acceptor.silence();
+        long ballot = Ballot.of(1, 1);
+        request(acceptor, Message.prepareRequest(ballot, "M1", 0));
+        for (int slot = 0; slot < 3; slot++) {
+            request(acceptor, Message.acceptRequest(ballot, "M1", slot, "value-" + slot));
+        }
+        acceptor.compact(2);
+
+        Message promise = request(acceptor, Message.prepareRequest(Ballot.of(2, 2), "M2", 0));
+        assertEquals("PROMISE", promise.type);
+        assertEquals(2, promise.slot, "A PROMISE should report the compaction point");
+        assertEquals(1, promise.accepted.size(), "Only values at or above the compaction point should be reported");
+        assertEquals("REJECT", request(acceptor, Message.acceptRequest(Ballot.of(2, 2), "M2", 1, "other")).type,
+                "A compacted slot should not accept a new value");
+        acceptor.shutdown();
+
+        Acceptor restarted = new Acceptor(member, 0);
+        promise = request(restarted, Message.prepareRequest(Ballot.of(3, 2), "M2", 0));
+        assertEquals(2, promise.slot, "The compaction point should survive a restart");
+        assertEquals(1, promise.accepted.size());
+        restarted.shutdown();
+        member.shutdown();
+    }
+
+    @Test
+    void testPromiseReportsEveryEarlierAccept() throws Exception {
+        MemberConfig config = new MemberConfig("M4");
+        config.durability = "none";
+        config.reliability = 1;
+        config.maxDelay = 0;
+        config.notifyLearners = false;
+        Member member = new Member(config);
+        member.silence();
+        Acceptor acceptor = new Acceptor(member, 0);
+        acceptor.silence();
+        long ballot = Ballot.of(1, 1);
+        long higher = Ballot.of(2, 2);
+
+        // proposers racing on other threads: every value accepted before the PROMISE must be reported in it
+        int threads = 4;
+        Set<Integer> acceptedSlots = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch running = new CountDownLatch(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            done.add(executor.submit(() -> {
+                running.countDown();
+                for (int slot = first; slot < 200_000; slot += threads) {
+                    Message response = request(acceptor, Message.acceptRequest(ballot, "M1", slot, "value-" + slot));
+                    if (!response.type.equals("ACCEPT")) break; // promised to the higher ballot
+                    acceptedSlots.add(slot);
+                }
+            }));
+        }
+        running.await();
+        Thread.sleep(20);
+        Message promise = request(acceptor, Message.prepareRequest(higher, "M2", 0));
+        for (Future<?> future : done) future.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals("PROMISE", promise.type);
+        Set<Integer> reported = new HashSet<>();
+        for (Message.SlotValue value : promise.accepted) reported.add(value.slot);
+        assertFalse(acceptedSlots.isEmpty(), "Some values should be accepted before the PROMISE");
+        assertTrue(reported.containsAll(acceptedSlots), "A PROMISE should report every value accepted before it");
+        acceptor.shutdown();
+        member.shutdown();
+    }
+}
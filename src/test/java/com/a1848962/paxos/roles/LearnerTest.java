@@ -0,0 +1,127 @@
+package com.a1848962.paxos.roles;
+
+import com.a1848962.paxos.network.Message;
+import com.a1848962.paxos.utils.Batch;
+import com.a1848962.paxos.utils.MemberConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LearnerTest {
+
+    @TempDir
+    Path directory;
+
+    private Member durableMember() {
+        MemberConfig config = new MemberConfig("M4");
+        config.durability = "fsync";
+        config.storageDir = directory.toString();
+        config.reliability = 1;
+        config.maxDelay = 0;
+        Member member = new Member(config);
+        member.silence();
+        return member;
+    }
+
+    private static void learn(Learner learner, int slot, String value) {
+        CompletableFuture<Message> ack = new CompletableFuture<>();
+        learner.handleLearn(Message.learn(1, "M1", slot, value), ack::complete);
+        assertEquals("ACK", ack.join().type, "LEARN should be acknowledged once stored");
+    }
+
+    @Test
+    void testLearnedValuesSurviveRestart() {
+        Member member = durableMember();
+        Learner learner = new Learner(member, 0);
+        learner.silence();
+        for (int slot = 1; slot >= 0; slot--) {
+            learn(learner, slot, "M" + (slot + 5));
+        }
+        learner.shutdown();
+
+        Learner restarted = new Learner(member, 0);
+        assertEquals(Arrays.asList("M5", "M6"), restarted.getLog(), "A restarted learner should keep its log");
+        assertTrue(restarted.awaitLog(2).isDone(), "Recovered slots should count towards the log length");
+        restarted.shutdown();
+        member.shutdown();
+    }
+
+    @Test
+    void testSnapshotSurvivesRestart() throws Exception {
+        Member member = durableMember();
+        member.config.snapshotInterval = 5;
+        Learner learner = new Learner(member, 0);
+        learner.silence();
+        List<String> values = new ArrayList<>();
+        for (int slot = 0; slot < 12; slot++) {
+            values.add("value-" + slot);
+            learn(learner, slot, slot == 3 ? Message.NOOP : values.get(slot));
+        }
+        values.remove(3);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (learner.getSnapshot().slot < 10 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(learner.getSnapshot().slot >= 10, "Learner should have snapshotted its log");
+        assertEquals(values, learner.getLog(), "Log should be unchanged by compaction");
+        learn(learner, 2, "value-2"); // already compacted, still acknowledged
+        learner.shutdown();
+
+        Learner restarted = new Learner(member, 0);
+        assertEquals(values, restarted.getLog(), "A restarted learner should restore its snapshot and later values");
+        restarted.shutdown();
+        member.shutdown();
+    }
+
+    @Test
+    void testCatchupStreamsSnapshotThenTail() throws Exception {
+        Member member = durableMember();
+        member.config.snapshotInterval = 5;
+        member.config.catchupChunk = 16; // two of the values below per chunk
+        Learner learner = new Learner(member, 0);
+        learner.silence();
+        for (int slot = 0; slot < 12; slot++) {
+            learn(learner, slot, "value-" + slot);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (learner.getSnapshot().slot < 10 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        int snapshotSlot = learner.getSnapshot().slot;
+        assertTrue(snapshotSlot >= 10, "Learner should have snapshotted its log");
+
+        List<String> streamed = new ArrayList<>();
+        Message chunk;
+        do {
+            CompletableFuture<Message> reply = new CompletableFuture<>();
+            learner.handleCatchupRequest(Message.catchupRequest("M9", 0, streamed.size()), reply::complete);
+            chunk = reply.join();
+            assertEquals("CATCHUP", chunk.type);
+            assertEquals(snapshotSlot, chunk.slot, "A compacted slot should be answered from the snapshot");
+            assertEquals(streamed.size(), chunk.offset, "Chunk should start at the requested offset");
+            List<String> values = Batch.decode(chunk.value);
+            assertTrue(values.size() <= 2, "Chunk should be bounded by catchup_chunk");
+            streamed.addAll(values);
+        } while (streamed.size() < chunk.total);
+        assertEquals(learner.getSnapshot().values, streamed, "Chunks should add up to the snapshot");
+
+        // a learner holding the first 4 slots, one value each, is only sent the values after them
+        CompletableFuture<Message> rest = new CompletableFuture<>();
+        learner.handleCatchupRequest(Message.catchupRequest("M9", 4, 4), rest::complete);
+        assertEquals(4, rest.join().offset);
+        assertEquals("value-4", Batch.decode(rest.join().value).get(0), "Values the requester holds should be skipped");
+
+        CompletableFuture<Message> reply = new CompletableFuture<>();
+        learner.handleCatchupRequest(Message.catchupRequest("M9", snapshotSlot, 0), reply::complete);
+        Message tail = reply.join();
+        assertNull(tail.value, "Slots after the snapshot should be sent as learned values");
+        assertEquals(12 - snapshotSlot, tail.total, "Every learned slot after the snapshot should be available");
+        assertEquals(snapshotSlot, tail.accepted.get(0).slot);
+        assertEquals("value-" + snapshotSlot, tail.accepted.get(0).value);
+        learner.shutdown();
+        member.shutdown();
+    }
+}
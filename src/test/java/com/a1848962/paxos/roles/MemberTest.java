@@ -1,6 +1,7 @@
 package com.a1848962.paxos.roles;
 
 import com.a1848962.paxos.network.Message;
+import com.a1848962.paxos.utils.Ballot;
 import com.a1848962.paxos.utils.MemberConfig;
 import com.a1848962.paxos.utils.SimpleLogger;
 import org.junit.jupiter.api.*;
@@ -213,6 +214,491 @@ public class MemberTest {
         }
     }
 
+    /**
+     * Additional Testing: a sequence of values submitted to one proposer is appended to every learner's log in order.
+     */
+    @Test
+    @DisplayName("Additional Test: Submitted values are learned as an ordered log")
+    void testReplicatedLog() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+        }
+
+        Member.ProposerRole proposer = members.get("M1").getProposer();
+        List<String> values = Arrays.asList("M1", "M4", "M7", "M2");
+        for (int i = 0; i < values.size(); i++) {
+            int slot = proposer.submit(values.get(i)).get(20, TimeUnit.SECONDS);
+            assertEquals(i, slot, "Values should be chosen in consecutive slots");
+        }
+
+        // LEARN messages may need to be retried for unreliable members, allow time for every learner to catch up
+        long deadline = System.currentTimeMillis() + 20000;
+        List<Member> learners = members.values().stream().filter(m -> m.config.isLearner).collect(Collectors.toList());
+        while (System.currentTimeMillis() < deadline
+                && !learners.stream().allMatch(m -> m.getLearner().getLog().equals(values))) {
+            Thread.sleep(200);
+        }
+
+        for (Member m : learners) {
+            assertEquals(values, m.getLearner().getLog(), m.config.memberID + " learned an unexpected log");
+        }
+        assertEquals("M1", members.get("M5").getLearner().getLearnedValue(), "Councillor should be the first value in the log");
+    }
+
+    /**
+     * Additional Testing: a burst of submissions is batched into fewer slots than values, and every submitter is
+     * notified once its value is chosen.
+     */
+    @Test
+    @DisplayName("Additional Test: Bursts of submitted values are batched")
+    void testBatchedSubmissions() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+        }
+
+        Member.ProposerRole proposer = members.get("M1").getProposer();
+        List<String> values = new ArrayList<>();
+        List<CompletableFuture<Integer>> chosen = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            values.add("value-" + i);
+            chosen.add(proposer.submit(values.get(i)));
+        }
+
+        Set<Integer> slots = new HashSet<>();
+        for (CompletableFuture<Integer> slot : chosen) {
+            slots.add(slot.get(20, TimeUnit.SECONDS));
+        }
+        assertTrue(slots.size() < values.size(), "Values should share slots, but used " + slots.size() + " slots");
+
+        // M1 is reliable and learns its own decisions in-process
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && !members.get("M1").getLearner().getLog().equals(values)) {
+            Thread.sleep(100);
+        }
+        assertEquals(values, members.get("M1").getLearner().getLog(), "Log should contain every value in submission order");
+    }
+
+    @Test
+    @DisplayName("Multi-Paxos: Learners learn from ACCEPTED notifications sent by acceptors")
+    void testLearnersNotifiedByAcceptors() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.notifyLearners = true;
+        }
+
+        int slot = members.get("M2").getProposer().submit("M2").get(10, TimeUnit.SECONDS);
+        assertEquals(0, slot, "First value should be chosen in slot 0");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Member m : members.values()) {
+            while (System.currentTimeMillis() < deadline && !"M2".equals(m.getLearner().getLearnedValue())) {
+                Thread.sleep(50);
+            }
+            assertEquals("M2", m.getLearner().getLearnedValue(), m.config.memberID + " did not learn the value");
+        }
+    }
+
+    @Test
+    @DisplayName("Mencius: Each proposer commits values in the slots it owns")
+    void testMenciusRotatingSlots() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.mencius = true;
+        }
+
+        String[] proposers = {"M1", "M2", "M3"};
+        Map<String, List<CompletableFuture<Integer>>> chosen = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            for (String id : proposers) {
+                String value = id + "-" + i;
+                values.add(value);
+                chosen.computeIfAbsent(id, k -> new ArrayList<>()).add(members.get(id).getProposer().submit(value));
+            }
+        }
+        for (int rank = 0; rank < proposers.length; rank++) {
+            for (CompletableFuture<Integer> slot : chosen.get(proposers[rank])) {
+                assertEquals(rank, slot.get(10, TimeUnit.SECONDS) % 3, proposers[rank] + " should only use the slots it owns");
+            }
+        }
+
+        // slots skipped by a proposer with nothing left to propose are filled with no-ops, so the log has no gaps
+        Member.LearnerRole learner = members.get("M4").getLearner();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && learner.getLog().size() < values.size()) {
+            Thread.sleep(50);
+        }
+        List<String> log = learner.getLog();
+        assertEquals(new HashSet<>(values), new HashSet<>(log), "Log should contain every submitted value");
+        assertEquals(values.size(), log.size(), "Log should contain each value once");
+    }
+
+    @Test
+    @DisplayName("Mencius: A slot owned by a failed proposer is taken over")
+    void testMenciusTakeover() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.mencius = true;
+        }
+        members.get("M3").shutdown(); // owner of slots 2, 5, 8...
+
+        Member.ProposerRole proposer = members.get("M1").getProposer();
+        assertEquals(0, proposer.submit("first").get(10, TimeUnit.SECONDS), "First value should be chosen in M1's first slot");
+        assertEquals(3, proposer.submit("second").get(10, TimeUnit.SECONDS), "Second value should be chosen in M1's next slot");
+
+        Member.LearnerRole learner = members.get("M4").getLearner();
+        long deadline = System.currentTimeMillis() + 15000;
+        while (System.currentTimeMillis() < deadline && learner.getLog().size() < 2) {
+            Thread.sleep(50);
+        }
+        assertEquals(Arrays.asList("first", "second"), learner.getLog(), "Empty slots should be filled so the log is complete");
+    }
+
+    @Test
+    @DisplayName("Mencius: A batch whose slot was chosen with another value is proposed again")
+    void testMenciusBatchLosingSlotIsRequeued() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.mencius = true;
+        }
+
+        // M1 places its batch in slot 0 but cannot send it, then learns another value was chosen there
+        Member m1 = members.get("M1");
+        m1.config.batchDelay = 0;
+        m1.currentlyCoorong = true;
+        CompletableFuture<Integer> chosen = m1.getProposer().submit("mine");
+        Thread.sleep(200);
+        m1.currentlyCoorong = false;
+        m1.getProposer().handleChosen(0, "theirs");
+
+        int slot = chosen.get(10, TimeUnit.SECONDS);
+        assertNotEquals(0, slot, "The batch should not be reported chosen in a slot holding another value");
+        assertEquals(0, slot % 3, "The batch should be proposed again in a slot M1 owns");
+    }
+
+    @Test
+    @DisplayName("Groups: Independent Paxos groups on the same members keep separate logs")
+    void testIndependentGroups() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.addGroup(1);
+        }
+
+        // different leaders in each group, deciding at the same time
+        CompletableFuture<Integer> first = members.get("M1").getProposer(0).submit("group-0");
+        CompletableFuture<Integer> second = members.get("M2").getProposer(1).submit("group-1");
+        assertEquals(0, first.get(10, TimeUnit.SECONDS), "Value should be chosen in slot 0 of group 0");
+        assertEquals(0, second.get(10, TimeUnit.SECONDS), "Value should be chosen in slot 0 of group 1");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Member m : members.values()) {
+            while (System.currentTimeMillis() < deadline && (m.getLearner(0).getLearnedValue() == null
+                    || m.getLearner(1).getLearnedValue() == null)) {
+                Thread.sleep(50);
+            }
+            assertEquals(Collections.singletonList("group-0"), m.getLearner(0).getLog(), m.config.memberID + " has the wrong log for group 0");
+            assertEquals(Collections.singletonList("group-1"), m.getLearner(1).getLog(), m.config.memberID + " has the wrong log for group 1");
+        }
+        assertNull(members.get("M1").getProposer(2), "Groups should only exist once added");
+    }
+
+    @Test
+    @DisplayName("Multi-Paxos: Leaseholder serves reads locally and for other members until its lease expires")
+    void testLeasedReads() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.leaseDuration = 1500;
+        }
+
+        Member m1 = members.get("M1");
+        assertNull(m1.getProposer().leasedRead(), "No lease should be held before a round completes");
+        m1.getProposer().submit("M1").get(10, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList("M1"), m1.read().get(5, TimeUnit.SECONDS), "Leaseholder should read its own value");
+        assertEquals(Collections.singletonList("M1"), members.get("M5").read().get(5, TimeUnit.SECONDS), "Read should be forwarded to the leaseholder");
+
+        Thread.sleep(1500);
+        assertNull(m1.getProposer().leasedRead(), "Lease should have expired");
+        assertNull(members.get("M5").read().get(10, TimeUnit.SECONDS), "Read should fail without a leaseholder");
+    }
+
+    @Test
+    @DisplayName("Multi-Paxos: New leader reads values chosen under the previous leader")
+    void testLeasedReadAfterLeaderChange() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.leaseDuration = 1500;
+        }
+
+        // a previous leader got three values chosen, but no learner heard about them
+        List<String> earlier = Arrays.asList("a", "b", "c");
+        for (Member m : members.values()) {
+            for (int slot = 0; slot < earlier.size(); slot++) {
+                m.getAcceptor().handleAcceptRequest(Message.acceptRequest(Ballot.of(1, 2), "M2", slot, earlier.get(slot)), r -> {});
+            }
+        }
+
+        // one slot in flight at a time, so the recovered slots are chosen one by one
+        Member m1 = members.get("M1");
+        m1.config.pipelineWindow = 1;
+        CompletableFuture<Integer> chosen = m1.getProposer().submit("d");
+        List<List<String>> reads = new ArrayList<>();
+        while (!chosen.isDone()) {
+            CompletableFuture<List<String>> read = m1.getProposer().leasedRead();
+            if (read != null) reads.add(read.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(3, chosen.get(), "The new value should follow the recovered slots");
+        reads.add(m1.read().get(5, TimeUnit.SECONDS));
+
+        for (List<String> log : reads) {
+            assertNotNull(log, "The leaseholder's learner should catch up");
+            assertEquals(earlier, log.subList(0, Math.min(log.size(), earlier.size())),
+                    "A leased read should not miss values chosen under the previous leader");
+        }
+    }
+
+    @Test
+    @DisplayName("Multi-Paxos: Three contending proposers all get their values chosen without waiting for timeouts")
+    void testContendingProposersBackOff() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1; // only contention, not lost messages, should delay decisions
+        }
+
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Integer>> chosen = new ArrayList<>();
+        for (String id : new String[] {"M1", "M2", "M3"}) {
+            chosen.add(members.get(id).getProposer().submit(id));
+        }
+        Set<Integer> slots = new HashSet<>();
+        for (CompletableFuture<Integer> slot : chosen) {
+            slots.add(slot.get(10, TimeUnit.SECONDS));
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(3, slots.size(), "Each value should be chosen in its own slot");
+        assertTrue(elapsed < 2000, "Contention should be resolved before any round times out, took " + elapsed + "ms");
+    }
+
+    @Test
+    @DisplayName("Flexible Paxos: With a large phase one quorum, values are chosen by a phase two quorum of three")
+    void testFlexibleQuorums() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.phaseOneQuorum = 7; // 7 + 3 > 9 acceptors
+            m.config.phaseTwoQuorum = 3;
+        }
+
+        Member.ProposerRole proposer = members.get("M1").getProposer();
+        assertEquals(0, proposer.submit("M1").get(10, TimeUnit.SECONDS), "First value should be chosen in slot 0");
+
+        // with only M1-M3 left, the leader can still get values chosen, but no new leader could be elected
+        for (String id : new String[] {"M4", "M5", "M6", "M7", "M8", "M9"}) {
+            members.get(id).shutdown();
+        }
+        assertEquals(1, proposer.submit("M2").get(10, TimeUnit.SECONDS), "Second value should be chosen by three acceptors");
+    }
+
+    @Test
+    @DisplayName("Snapshots: Learners compact their logs, and a new leader skips the compacted slots")
+    void testSnapshotCompaction() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.batchSize = 1; // one value per slot
+            m.config.snapshotInterval = 4;
+        }
+
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            values.add("value-" + i);
+            members.get("M1").getProposer().submit(values.get(i)).get(10, TimeUnit.SECONDS);
+        }
+        for (Member m : members.values()) {
+            assertEquals(values, m.getLearner().awaitLog(10).get(10, TimeUnit.SECONDS), m.config.memberID + " should learn every value");
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Member m : members.values()) {
+            Learner learner = (Learner) m.getLearner();
+            while (learner.getSnapshot().slot < 8 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(learner.getSnapshot().slot >= 8, m.config.memberID + " should have compacted its log");
+            assertTrue(learner.uncompactedSlots() <= 2, m.config.memberID + " should only hold slots after its snapshot");
+            assertEquals(values, learner.getLog(), m.config.memberID + " should still report the full log");
+        }
+
+        // M2 has not seen any slot chosen, so it prepares from slot 0 and must skip the compacted slots
+        assertEquals(10, members.get("M2").getProposer().submit("late").get(10, TimeUnit.SECONDS),
+                "A new leader should propose after the chosen slots");
+        values.add("late");
+        for (Member m : members.values()) {
+            assertEquals(values, m.getLearner().awaitLog(11).get(10, TimeUnit.SECONDS), m.config.memberID + " should learn the new value");
+        }
+    }
+
+    @Test
+    @DisplayName("Catch-up: A member returning from the Coorong catches up through a peer's snapshot and log")
+    void testCatchupAfterCoorong() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.batchSize = 1; // one value per slot
+            m.config.snapshotInterval = 4;
+            m.config.catchupChunk = 8; // one value per snapshot chunk
+        }
+        Member m9 = members.get("M9");
+        m9.forceCoorong(true, 60000);
+
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            values.add("value-" + i);
+            members.get("M1").getProposer().submit(values.get(i)).get(10, TimeUnit.SECONDS);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Member m : members.values()) {
+            if (m == m9) continue;
+            Learner learner = (Learner) m.getLearner();
+            while (learner.getSnapshot().slot < 8 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(learner.getSnapshot().slot >= 8, m.config.memberID + " should have compacted its log");
+        }
+        assertTrue(m9.getLearner().getLog().isEmpty(), "M9 should have missed every value");
+
+        // resent LEARNs only arrive after a response timeout, so learning the log sooner means M9 caught up
+        m9.forceCoorong(false, 0);
+        assertEquals(values, m9.getLearner().awaitLog(10).get(2, TimeUnit.SECONDS), "M9 should catch up on every value");
+        assertTrue(((Learner) m9.getLearner()).getSnapshot().slot >= 8, "M9 should have installed a peer's snapshot");
+    }
+
+    @Test
+    @DisplayName("Catch-up: A member holding part of the log appends only the missed values to its snapshot")
+    void testCatchupFromPartialLog() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.batchSize = 1; // one value per slot
+            m.config.snapshotInterval = 4;
+            m.config.catchupChunk = 8; // one value per snapshot chunk
+        }
+        Member m9 = members.get("M9");
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            values.add("value-" + i);
+            members.get("M1").getProposer().submit(values.get(i)).get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(values, m9.getLearner().awaitLog(5).get(10, TimeUnit.SECONDS), "M9 should learn the first values");
+
+        m9.forceCoorong(true, 60000);
+        for (int i = 5; i < 14; i++) {
+            values.add("value-" + i);
+            members.get("M1").getProposer().submit(values.get(i)).get(10, TimeUnit.SECONDS);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Member m : members.values()) {
+            if (m == m9) continue;
+            Learner learner = (Learner) m.getLearner();
+            while (learner.getSnapshot().slot < 12 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(learner.getSnapshot().slot >= 12, m.config.memberID + " should have compacted its log");
+        }
+
+        m9.forceCoorong(false, 0);
+        assertEquals(values, m9.getLearner().awaitLog(14).get(2, TimeUnit.SECONDS), "M9 should catch up on the missed values only once");
+        assertTrue(((Learner) m9.getLearner()).getSnapshot().slot >= 12, "M9 should have extended its snapshot from a peer's");
+        assertEquals(values.subList(0, 12), ((Learner) m9.getLearner()).getSnapshot().values.subList(0, 12));
+    }
+
+    @Test
+    @DisplayName("Thrifty: Values are still chosen when acceptors in the preferred quorum fail")
+    void testThriftyFallback() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+            m.config.reliability = 1;
+            m.config.thrifty = true;
+        }
+
+        Member.ProposerRole proposer = members.get("M1").getProposer();
+        assertEquals(0, proposer.submit("M1").get(10, TimeUnit.SECONDS), "First value should be chosen in slot 0");
+
+        // leaves exactly a majority, so any failed acceptor in the preferred quorum forces a fallback
+        for (String id : new String[] {"M5", "M6", "M7", "M8"}) {
+            members.get(id).shutdown();
+        }
+        assertEquals(1, proposer.submit("M2").get(10, TimeUnit.SECONDS), "Second value should be chosen after falling back");
+        assertEquals(2, proposer.submit("M3").get(10, TimeUnit.SECONDS), "Third value should be chosen by the remaining acceptors");
+    }
+
+    @Test
+    @DisplayName("Multi-Paxos: Leader pipelines rounds for many slots at once")
+    void testPipelinedProposals() throws Exception {
+        Message.MAX_DELAY = 0;
+        Message.LOSS_CHANCE = 0;
+        for (Member m : members.values()) {
+            m.config.maxDelay = 0;
+        }
+
+        // one value per slot, so every submission needs its own round
+        Member m1 = members.get("M1");
+        m1.config.batchSize = 1;
+        m1.config.batchDelay = 0;
+        Member.ProposerRole proposer = m1.getProposer();
+        proposer.submit("first").get(10, TimeUnit.SECONDS); // become leader
+
+        List<String> values = new ArrayList<>();
+        List<CompletableFuture<Integer>> chosen = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            values.add("value-" + i);
+            chosen.add(proposer.submit(values.get(i)));
+        }
+
+        Set<Integer> slots = new HashSet<>();
+        for (CompletableFuture<Integer> slot : chosen) {
+            slots.add(slot.get(20, TimeUnit.SECONDS));
+        }
+        assertEquals(values.size(), slots.size(), "Each value should be chosen in its own slot");
+        assertTrue(((Proposer) proposer).peakInFlight() > 1, "More than one slot should have been in flight at once");
+
+        values.add(0, "first");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && !m1.getLearner().getLog().equals(values)) {
+            Thread.sleep(100);
+        }
+        assertEquals(values, m1.getLearner().getLog(), "Log should contain every value in submission order");
+    }
+
     /*--------------------- Additional Testing: stress/edge testing ---------------------*/
 
     /**
@@ -0,0 +1,128 @@
+package com.a1848962.paxos.storage;
+
+import com.a1848962.paxos.network.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileLogStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static LogEntry accept(int slot, String value) {
+        return LogEntry.accept(new Message.SlotValue(slot, 1, "M1", value));
+    }
+
+    @Test
+    void testEntriesAreRecovered() {
+        Path file = directory.resolve("M1").resolve("acceptor-0.wal");
+        LogStore store = new FileLogStore(file, true);
+        assertTrue(store.recover().isEmpty(), "A new log should be empty");
+        store.append(LogEntry.promise(7));
+        store.append(LogEntry.accept(new Message.SlotValue(3, 7, "M1", "v\u00e4lue"))).join();
+        store.close();
+
+        List<LogEntry> entries = new FileLogStore(file, true).recover();
+        assertEquals(2, entries.size(), "Both entries should be recovered");
+        assertEquals(LogEntry.Type.PROMISE, entries.get(0).type, "Entries should be recovered in append order");
+        assertEquals(7, entries.get(0).ballot);
+        Message.SlotValue accepted = entries.get(1).toSlotValue();
+        assertEquals(3, accepted.slot);
+        assertEquals("M1", accepted.proposerID);
+        assertEquals("v\u00e4lue", accepted.value, "Values should survive encoding");
+    }
+
+    @Test
+    void testIncompleteEntryIsDiscarded() throws Exception {
+        Path file = directory.resolve("acceptor-0.wal");
+        LogStore store = new FileLogStore(file, false);
+        store.append(accept(0, "kept"));
+        store.append(accept(1, "torn")).join();
+        store.close();
+
+        // simulate a crash part way through writing the second entry
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        long intactSize = Files.size(file);
+
+        store = new FileLogStore(file, false);
+        assertEquals(1, store.recover().size(), "Only the intact entry should be recovered");
+        assertTrue(Files.size(file) < intactSize, "The incomplete entry should be truncated");
+        store.append(accept(2, "next")).join();
+        store.close();
+
+        List<LogEntry> entries = new FileLogStore(file, false).recover();
+        assertEquals(2, entries.size(), "Entries appended after recovery should follow the intact entry");
+        assertEquals("next", entries.get(1).value);
+    }
+
+    @Test
+    void testConcurrentAppendsShareSyncs() throws Exception {
+        FileLogStore store = new FileLogStore(directory.resolve("acceptor-0.wal"), true);
+        int threads = 8;
+        int perThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            done.add(CompletableFuture.runAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < perThread; i++) store.append(LogEntry.promise(i)).join();
+            }, executor));
+        }
+        start.countDown();
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        executor.shutdown();
+
+        assertEquals(threads * perThread, store.appends(), "Every entry should be written");
+        assertTrue(store.syncs() < store.appends(), "Concurrent appends should be grouped into fewer fsyncs, got "
+                + store.syncs() + " fsyncs for " + store.appends() + " entries");
+        store.close();
+    }
+
+    @Test
+    void testCompactionRewritesLog() throws Exception {
+        Path file = directory.resolve("acceptor-0.wal");
+        LogStore store = new FileLogStore(file, true);
+        store.append(LogEntry.promise(5));
+        for (int slot = 0; slot < 50; slot++) {
+            store.append(accept(slot, "value-" + slot));
+        }
+        store.append(accept(49, "latest")).join();
+        long before = Files.size(file);
+        store.compact(48);
+        assertTrue(Files.size(file) < before, "Compaction should shrink the log");
+        store.append(LogEntry.promise(6)).join();
+        store.close();
+
+        List<LogEntry> entries = new FileLogStore(file, true).recover();
+        assertEquals(4, entries.size(), "The highest promise, the compaction point and slots 48-49 should be recovered");
+        assertEquals(6, entries.stream().filter(entry -> entry.type == LogEntry.Type.PROMISE).findFirst().get().ballot);
+        assertEquals("latest", entries.stream().filter(entry -> entry.slot == 49 && entry.type == LogEntry.Type.ACCEPT)
+                .findFirst().get().value, "Only the latest entry for a slot should be kept");
+    }
+
+    @Test
+    void testUnknownDurabilityOrStorageThrowsException() {
+        assertThrows(IllegalArgumentException.class, () -> LogStore.open("file", "sometimes", directory.resolve("log")));
+        assertThrows(IllegalArgumentException.class, () -> LogStore.open("tape", "fsync", directory.resolve("log")));
+    }
+}
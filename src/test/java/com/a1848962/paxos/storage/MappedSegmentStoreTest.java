@@ -0,0 +1,130 @@
+package com.a1848962.paxos.storage;
+
+import com.a1848962.paxos.network.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedSegmentStoreTest {
+    private static final int SEGMENT_SIZE = 1024; // small enough for a few entries to fill a segment
+
+    @TempDir
+    Path directory;
+
+    private static LogEntry accept(int slot, long ballot, String value) {
+        return LogEntry.accept(new Message.SlotValue(slot, ballot, "M1", value));
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).count();
+        }
+    }
+
+    @Test
+    void testIndexReadsLatestEntryForSlot() {
+        MappedSegmentStore store = new MappedSegmentStore(directory, true, SEGMENT_SIZE);
+        store.append(accept(0, 1, "first"));
+        store.append(accept(1, 1, "other"));
+        store.append(accept(0, 2, "second")).join();
+        assertEquals("second", store.read(0).value, "The index should point to the latest entry for a slot");
+        assertEquals("other", store.read(1).value);
+        assertNull(store.read(2), "A slot without entries should not be indexed");
+        store.close();
+    }
+
+    @Test
+    void testRecoveryAcrossSegments() throws Exception {
+        MappedSegmentStore store = new MappedSegmentStore(directory, false, SEGMENT_SIZE);
+        store.append(LogEntry.promise(5));
+        for (int i = 0; i < 100; i++) {
+            store.append(accept(i % 10, i, "value-" + i));
+        }
+        store.append(LogEntry.promise(3)); // lower promise, superseded by 5
+        store.close();
+        assertTrue(segmentCount() > 1, "Entries should have filled several segments");
+        assertTrue(Files.exists(directory.resolve("checkpoint")), "Closing should write a checkpoint");
+
+        MappedSegmentStore reopened = new MappedSegmentStore(directory, false, SEGMENT_SIZE);
+        List<LogEntry> entries = reopened.recover();
+        assertEquals(11, entries.size(), "Only the highest promise and the latest entry per slot should be recovered");
+        assertEquals(LogEntry.Type.PROMISE, entries.get(0).type, "Entries should be recovered in append order");
+        assertEquals(5, entries.get(0).ballot);
+        for (int slot = 0; slot < 10; slot++) {
+            assertEquals("value-" + (90 + slot), reopened.read(slot).value);
+        }
+        reopened.append(accept(3, 100, "after")).join();
+        reopened.close();
+        assertEquals("after", new MappedSegmentStore(directory, false, SEGMENT_SIZE).read(3).value,
+                "Entries appended after reopening should be recovered");
+    }
+
+    @Test
+    void testRecoveryWithoutCheckpoint() throws Exception {
+        MappedSegmentStore store = new MappedSegmentStore(directory, false, SEGMENT_SIZE);
+        for (int i = 0; i < 30; i++) {
+            store.append(accept(i, 1, "value-" + i));
+        }
+        store.close();
+        Files.delete(directory.resolve("checkpoint")); // simulate a crash before any checkpoint was written
+
+        MappedSegmentStore reopened = new MappedSegmentStore(directory, false, SEGMENT_SIZE);
+        assertEquals(30, reopened.recover().size(), "A full scan should recover every entry");
+        assertEquals("value-29", reopened.read(29).value);
+        reopened.close();
+    }
+
+    @Test
+    void testIncompleteEntryIsDiscarded() throws Exception {
+        MappedSegmentStore store = new MappedSegmentStore(directory, false, SEGMENT_SIZE);
+        store.append(accept(0, 1, "kept"));
+        store.append(accept(1, 1, "torn"));
+        store.close();
+        Files.delete(directory.resolve("checkpoint"));
+
+        // simulate a crash part way through writing the second entry by corrupting its last byte
+        try (RandomAccessFile segment = new RandomAccessFile(directory.resolve("segment-0.seg").toFile(), "rw")) {
+            int end = Frames.encode(accept(0, 1, "kept")).remaining() + Frames.encode(accept(1, 1, "torn")).remaining();
+            segment.seek(end - 1);
+            segment.write(0x7F);
+        }
+
+        MappedSegmentStore reopened = new MappedSegmentStore(directory, false, SEGMENT_SIZE);
+        assertEquals(1, reopened.recover().size(), "Only the intact entry should be recovered");
+        reopened.append(accept(2, 1, "next")).join();
+        reopened.close();
+        Files.delete(directory.resolve("checkpoint"));
+        List<LogEntry> entries = new MappedSegmentStore(directory, false, SEGMENT_SIZE).recover();
+        assertEquals(2, entries.size(), "Entries appended after recovery should follow the intact entry");
+        assertEquals("next", entries.get(1).value);
+    }
+
+    @Test
+    void testCompactionDeletesOldSegments() throws Exception {
+        MappedSegmentStore store = new MappedSegmentStore(directory, false, SEGMENT_SIZE);
+        store.append(LogEntry.promise(5));
+        for (int slot = 0; slot < 100; slot++) {
+            store.append(accept(slot, 5, "value-" + slot));
+        }
+        long before = segmentCount();
+        store.compact(95);
+        assertTrue(segmentCount() < before, "Compaction should delete segments holding only compacted entries");
+        assertNull(store.read(50), "Compacted slots should no longer be indexed");
+        assertEquals("value-97", store.read(97).value, "Slots above the compaction point should be kept");
+        store.close();
+
+        List<LogEntry> entries = new MappedSegmentStore(directory, false, SEGMENT_SIZE).recover();
+        assertEquals(7, entries.size(), "The promise, the compaction point and slots 95-99 should be recovered");
+        assertTrue(entries.stream().anyMatch(entry -> entry.type == LogEntry.Type.PROMISE && entry.ballot == 5),
+                "The promise should survive compaction");
+        assertTrue(entries.stream().anyMatch(entry -> entry.type == LogEntry.Type.COMPACTED && entry.slot == 95),
+                "The compaction point should be recovered");
+    }
+}
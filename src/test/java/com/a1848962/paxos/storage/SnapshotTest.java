@@ -0,0 +1,77 @@
+package com.a1848962.paxos.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRoundTrip() {
+        Path file = directory.resolve("learner-0.snapshot");
+        assertSame(Snapshot.EMPTY, Snapshot.read(file), "A missing snapshot should read as empty");
+        new Snapshot(12, Arrays.asList("M1", "", "M3")).write(file, true);
+        Snapshot snapshot = Snapshot.read(file);
+        assertEquals(12, snapshot.slot);
+        assertEquals(Arrays.asList("M1", "", "M3"), snapshot.values, "Values should survive encoding");
+    }
+
+    @Test
+    void testExtendedSnapshotIsAppended() throws Exception {
+        Path file = directory.resolve("learner-0.snapshot");
+        Snapshot first = new Snapshot(2, Arrays.asList("M1", "M2"));
+        first.write(file, Snapshot.EMPTY, true);
+        Snapshot second = first.extend(4, Arrays.asList("M3", "M4"));
+        assertEquals(Arrays.asList("M1", "M2"), first.values, "Extending should not change the earlier snapshot");
+        assertEquals(Arrays.asList("M1", "M2", "M3", "M4"), second.values);
+
+        long size = Files.size(file);
+        second.write(file, first, true);
+        assertEquals(size + new Snapshot(4, Arrays.asList("M3", "M4")).encode().length, Files.size(file),
+                "Only the added values should be written");
+        Snapshot read = Snapshot.read(file);
+        assertEquals(4, read.slot);
+        assertEquals(second.values, read.values, "Appended values should be read back after the earlier ones");
+
+        // a branch from the earlier snapshot must not see the values appended by the first extension
+        Snapshot branch = first.extend(3, Collections.singletonList("other"));
+        assertEquals(Arrays.asList("M1", "M2", "other"), branch.values);
+        assertEquals(Arrays.asList("M1", "M2", "M3", "M4"), second.values);
+    }
+
+    @Test
+    void testTornAppendIsDiscarded() throws Exception {
+        Path file = directory.resolve("learner-0.snapshot");
+        Snapshot first = new Snapshot(2, Arrays.asList("M1", "M2"));
+        first.write(file, true);
+        Snapshot second = first.extend(3, Collections.singletonList("M3"));
+        second.write(file, first, true);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 2); // crashed while appending
+        }
+
+        Snapshot read = Snapshot.read(file);
+        assertEquals(2, read.slot, "A torn record should be ignored");
+        assertEquals(first.values, read.values);
+        read.extend(4, Collections.singletonList("M4")).write(file, read, true);
+        assertEquals(Arrays.asList("M1", "M2", "M4"), Snapshot.read(file).values, "Appends should follow the last intact record");
+    }
+
+    @Test
+    void testCorruptSnapshotThrowsException() {
+        byte[] bytes = new Snapshot(3, Arrays.asList("M1", "M2")).encode();
+        bytes[5]++;
+        assertThrows(IllegalArgumentException.class, () -> Snapshot.decode(bytes));
+    }
+}
@@ -0,0 +1,34 @@
+package com.a1848962.paxos.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackoffContentionManagerTest {
+
+    @Test
+    void testBackoffGrowsWithinJitterBounds() {
+        BackoffContentionManager contention = new BackoffContentionManager(20, 2000, 0);
+        long window = 20;
+        for (int failure = 1; failure <= 10; failure++) {
+            long delay = contention.backoff();
+            assertTrue(delay >= window / 2 && delay <= window, "Backoff " + delay + " should be within [" + window / 2 + ", " + window + "]");
+            window = Math.min(2000, window * 2);
+        }
+    }
+
+    @Test
+    void testResetReturnsToShortestBackoff() {
+        BackoffContentionManager contention = new BackoffContentionManager(20, 2000, 0);
+        for (int i = 0; i < 5; i++) contention.backoff();
+        contention.reset();
+        assertTrue(contention.backoff() <= 20, "Backoff should start from the base delay again after a success");
+    }
+
+    @Test
+    void testLowerPriorityProposersYield() {
+        BackoffContentionManager first = new BackoffContentionManager(20, 2000, 0);
+        BackoffContentionManager third = new BackoffContentionManager(20, 2000, 2);
+        assertTrue(third.backoff() > first.backoff(), "A proposer with a higher member ID should retry later");
+    }
+}
@@ -0,0 +1,33 @@
+package com.a1848962.paxos.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BallotTest {
+
+    @Test
+    void testHigherRoundWins() {
+        assertTrue(Ballot.of(2, 9) > Ballot.of(1, 1), "Higher round should win regardless of member");
+        assertTrue(Ballot.of(1, 1) > Ballot.NONE, "Any ballot should be higher than none");
+    }
+
+    @Test
+    void testLowerMemberWinsTiedRound() {
+        assertTrue(Ballot.of(4, 1) > Ballot.of(4, 2), "For equal rounds, the lower member ID should have priority");
+        assertNotEquals(Ballot.of(4, 1), Ballot.of(4, 2), "Proposers picking the same round should get distinct ballots");
+    }
+
+    @Test
+    void testRoundTrip() {
+        long ballot = Ballot.of(123456, Ballot.memberIndex("M7"));
+        assertEquals(123456, Ballot.round(ballot), "Round should be recovered from the ballot");
+        assertEquals(7, Ballot.memberIndex(ballot), "Member index should be recovered from the ballot");
+        assertEquals("123456.M7", Ballot.toString(ballot));
+    }
+
+    @Test
+    void testInvalidMemberIDThrowsException() {
+        assertThrows(IllegalArgumentException.class, () -> Ballot.memberIndex("client"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.a1848962.paxos.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTest {
+
+    @Test
+    void testSingleValueIsNotWrapped() {
+        assertEquals("M1", Batch.encode(Collections.singletonList("M1")), "A batch of one should be the value itself");
+        assertEquals(Collections.singletonList("M1"), Batch.decode("M1"), "A plain value should decode to itself");
+    }
+
+    @Test
+    void testRoundTrip() {
+        List<String> values = Arrays.asList("M1", "", "a:b", "12:34", Batch.PREFIX);
+        assertEquals(values, Batch.decode(Batch.encode(values)), "Batch should preserve values and their order");
+    }
+
+    @Test
+    void testValueResemblingBatchIsWrapped() {
+        List<String> values = Collections.singletonList(Batch.PREFIX + "2:M1");
+        assertEquals(values, Batch.decode(Batch.encode(values)), "A value starting with the batch prefix should survive");
+    }
+
+    @Test
+    void testTaggedBatchCarriesId() {
+        List<String> values = Arrays.asList("M1", "3#x", Batch.PREFIX);
+        String batch = Batch.encode("M1/0/k/7", values);
+        assertEquals("M1/0/k/7", Batch.id(batch), "A tagged batch should carry its id");
+        assertEquals(values, Batch.decode(batch), "The id should not be decoded as a value");
+
+        String single = Batch.encode("M1/0/k/8", Collections.singletonList("M1"));
+        assertNotEquals("M1", single, "A tagged batch of one should still be wrapped");
+        assertEquals(Collections.singletonList("M1"), Batch.decode(single));
+        assertNull(Batch.id("M1"), "A plain value should have no id");
+        assertNull(Batch.id(Batch.encode(values)), "An untagged batch should have no id");
+    }
+
+    @Test
+    void testMalformedBatchThrowsException() {
+        assertThrows(IllegalArgumentException.class, () -> Batch.decode(Batch.PREFIX + "9:M1"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.a1848962.paxos.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyTrackerTest {
+
+    private static MemberConfig.MemberInfo member(String id) {
+        return new MemberConfig.MemberInfo(id, true, true, false, "localhost", 0);
+    }
+
+    @Test
+    void testOrdersFastestFirstWithUnmeasuredAhead() {
+        LatencyTracker tracker = new LatencyTracker();
+        tracker.record("M1", 50);
+        tracker.record("M2", 5);
+        List<MemberConfig.MemberInfo> ordered = tracker.fastestFirst(Arrays.asList(member("M1"), member("M2"), member("M3")));
+        assertEquals("M3", ordered.get(0).id, "Unmeasured member should be tried first");
+        assertEquals("M2", ordered.get(1).id, "Faster member should come before slower member");
+        assertEquals("M1", ordered.get(2).id);
+    }
+
+    @Test
+    void testFailureMovesMemberBack() {
+        LatencyTracker tracker = new LatencyTracker();
+        tracker.record("M1", 5);
+        tracker.record("M2", 50);
+        tracker.recordFailure("M1");
+        List<MemberConfig.MemberInfo> ordered = tracker.fastestFirst(Arrays.asList(member("M1"), member("M2")));
+        assertEquals("M2", ordered.get(0).id, "Member that missed a reply should be tried after a slower healthy one");
+    }
+
+    @Test
+    void testDeadlineIsClamped() {
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(LatencyTracker.MIN_DEADLINE, tracker.deadline(Collections.singletonList(member("M1"))),
+                "Unmeasured member should get the shortest deadline");
+        tracker.record("M1", 20);
+        assertEquals(50, tracker.deadline(Collections.singletonList(member("M1"))), "Deadline should be twice the average plus a margin");
+        for (int i = 0; i < 5; i++) tracker.recordFailure("M1");
+        assertEquals(LatencyTracker.MAX_DEADLINE, tracker.deadline(Collections.singletonList(member("M1"))),
+                "Deadline should not exceed the maximum");
+    }
+}
@@ -21,6 +21,14 @@ class MemberConfigTest {
         assertEquals(0, config.chanceCoorong, "Default coorong should be 0");
     }
 
+    @Test
+    void testDefaultQuorumsAreMajorities() {
+        MemberConfig config = new MemberConfig("M4");
+
+        assertEquals(5, config.phaseOneQuorum, "Default phase one quorum should be a majority of the 9 acceptors");
+        assertEquals(5, config.phaseTwoQuorum, "Default phase two quorum should be a majority of the 9 acceptors");
+    }
+
     @Test
     void testConnectionInfo() {
         // test for member with no specific overrides